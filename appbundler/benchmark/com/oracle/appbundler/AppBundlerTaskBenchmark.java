@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.appbundler.benchmark.SyntheticCorpus;
+
+/**
+ * Measures building a bundle from a synthetic corpus, end to end and step by
+ * step. This class is in the task's package, so it can run single steps.
+ * Every invocation writes into an empty output directory, and the outputs of
+ * previous invocations are deleted before it is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppBundlerTaskBenchmark {
+    @Param({"1000"})
+    public int runtimeFiles;
+
+    @Param({"50"})
+    public int classPathJars;
+
+    @Param({"100"})
+    public int documentTypes;
+
+    private File workDirectory;
+    private File runtimeHomeDirectory;
+    private File outputDirectory;
+    private AppBundlerTask task;
+    private File stepDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("appbundler-benchmark").toFile();
+
+        SyntheticCorpus corpus = new SyntheticCorpus(0);
+        runtimeHomeDirectory = corpus.createRuntime(new File(workDirectory, "runtime"), runtimeFiles);
+        File libDirectory = new File(workDirectory, "lib");
+        corpus.createClassPath(libDirectory, classPathJars, 100);
+
+        outputDirectory = new File(workDirectory, "out");
+        outputDirectory.mkdir();
+
+        Project project = new Project();
+        project.init();
+
+        task = new AppBundlerTask();
+        task.setProject(project);
+        task.setOutputDirectory(outputDirectory);
+        task.setName("Benchmark");
+        task.setDisplayName("Benchmark");
+        task.setIdentifier("com.example.Benchmark");
+        task.setMainClassName("com.example.Main");
+
+        FileSet runtime = new FileSet();
+        runtime.setProject(project);
+        runtime.setDir(runtimeHomeDirectory);
+        task.addConfiguredRuntime(runtime);
+
+        FileSet classPath = new FileSet();
+        classPath.setProject(project);
+        classPath.setDir(libDirectory);
+        classPath.setIncludes("*.jar");
+        task.addConfiguredClassPath(classPath);
+
+        int i = 0;
+        for (String extensions : corpus.createDocumentTypeExtensions(documentTypes)) {
+            BundleDocument bundleDocument = new BundleDocument();
+            bundleDocument.setExtensions(extensions);
+            bundleDocument.setName("Document type " + i++);
+            bundleDocument.setRole("Editor");
+            bundleDocument.setIsPackage("false");
+            task.addConfiguredBundleDocument(bundleDocument);
+        }
+
+        stepDirectory = new File(workDirectory, "step");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BackgroundDeleter.awaitPending();
+        BackgroundDeleter.delete(workDirectory);
+    }
+
+    @Benchmark
+    public void execute(OutputState output) {
+        task.execute();
+    }
+
+    @Benchmark
+    public void copyRuntime(OutputState output) throws IOException {
+        task.beginBundle(stepDirectory);
+
+        try {
+            task.copyRuntime(new File(stepDirectory, "Contents/PlugIns"));
+        } finally {
+            task.endBundle();
+        }
+    }
+
+    @Benchmark
+    public void copyResources(OutputState output) throws IOException {
+        task.beginBundle(stepDirectory);
+
+        try {
+            task.copyResources(new File(stepDirectory, "Contents/Resources"));
+        } finally {
+            task.endBundle();
+        }
+    }
+
+    @Benchmark
+    public void writeInfoPlist(OutputState output) throws IOException {
+        task.beginBundle(stepDirectory);
+
+        try {
+            task.writeInfoPlist(new File(stepDirectory, "Contents/Info.plist"));
+        } finally {
+            task.endBundle();
+        }
+    }
+
+    @Benchmark
+    public void delete(DeleteState state) {
+        BackgroundDeleter.delete(state.directory);
+    }
+
+    /**
+     * An empty output directory and step bundle for each invocation. The
+     * previous outputs are deleted, and deletions the task scheduled in the
+     * background are completed, before the invocation is timed.
+     */
+    @State(Scope.Thread)
+    public static class OutputState {
+        @Setup(Level.Invocation)
+        public void setUp(AppBundlerTaskBenchmark benchmark) {
+            BackgroundDeleter.awaitPending();
+
+            for (File file : benchmark.outputDirectory.listFiles()) {
+                BackgroundDeleter.delete(file);
+            }
+
+            BackgroundDeleter.delete(benchmark.stepDirectory);
+            new File(benchmark.stepDirectory, "Contents/PlugIns").mkdirs();
+            new File(benchmark.stepDirectory, "Contents/Resources").mkdirs();
+        }
+    }
+
+    /**
+     * A fresh copy of the runtime for each deletion.
+     */
+    @State(Scope.Thread)
+    public static class DeleteState {
+        File directory;
+
+        @Setup(Level.Invocation)
+        public void setUp(AppBundlerTaskBenchmark benchmark) throws IOException {
+            directory = new File(benchmark.workDirectory, "delete");
+            new SyntheticCorpus(0).createRuntime(directory, benchmark.runtimeFiles);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the property lists written by the plist writers into maps, lists,
+ * strings, longs and booleans, so the two formats can be compared with each
+ * other and with the values that were written. Only the types the writers
+ * produce are supported.
+ */
+public class PlistReader {
+    private static final byte[] BINARY_MAGIC = "bplist00".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER_SIZE = 32;
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    static {
+        // The DTD is not needed, and must not be fetched
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private PlistReader() {
+    }
+
+    /**
+     * Reads a property list in either format.
+     */
+    public static Object read(byte[] content) throws IOException {
+        if (content.length >= BINARY_MAGIC.length
+            && Arrays.equals(Arrays.copyOf(content, BINARY_MAGIC.length), BINARY_MAGIC)) {
+            return readBinary(content);
+        }
+
+        return readXML(content);
+    }
+
+    /**
+     * Reads a property list in the XML format.
+     */
+    public static Object readXML(byte[] content) throws IOException {
+        try {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(content));
+
+            try {
+                // Skip the prolog and the document type declaration
+                while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                if (!reader.getLocalName().equals("plist")) {
+                    throw new IOException("Missing plist element.");
+                }
+
+                reader.nextTag();
+                Object value = readXMLValue(reader);
+
+                if (reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+                    throw new IOException("Unexpected content after the root value.");
+                }
+
+                return value;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException exception) {
+            throw new IOException(exception);
+        }
+    }
+
+    private static Object readXMLValue(XMLStreamReader reader) throws IOException, XMLStreamException {
+        String name = reader.getLocalName();
+
+        switch (name) {
+            case "dict": {
+                Map<String, Object> dict = new LinkedHashMap<>();
+
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if (!reader.getLocalName().equals("key")) {
+                        throw new IOException("Expected a key, found " + reader.getLocalName() + ".");
+                    }
+
+                    String key = reader.getElementText();
+                    reader.nextTag();
+                    dict.put(key, readXMLValue(reader));
+                }
+
+                return dict;
+            }
+
+            case "array": {
+                List<Object> array = new ArrayList<>();
+
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    array.add(readXMLValue(reader));
+                }
+
+                return array;
+            }
+
+            case "string":
+                return reader.getElementText();
+
+            case "integer":
+                return Long.valueOf(reader.getElementText().trim());
+
+            case "true":
+            case "false":
+                reader.nextTag();
+                return name.equals("true");
+
+            default:
+                throw new IOException("Unsupported element " + name + ".");
+        }
+    }
+
+    /**
+     * Reads a property list in the <code>bplist00</code> format.
+     */
+    public static Object readBinary(byte[] content) throws IOException {
+        if (content.length < BINARY_MAGIC.length + TRAILER_SIZE) {
+            throw new IOException("Truncated binary property list.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int trailer = content.length - TRAILER_SIZE;
+
+        int offsetIntSize = buffer.get(trailer + 6);
+        int objectRefSize = buffer.get(trailer + 7);
+        long objectCount = buffer.getLong(trailer + 8);
+        long topObject = buffer.getLong(trailer + 16);
+        long offsetTableOffset = buffer.getLong(trailer + 24);
+
+        if (objectCount <= 0 || objectCount > Integer.MAX_VALUE || topObject >= objectCount
+            || offsetTableOffset + objectCount * offsetIntSize > trailer) {
+            throw new IOException("Invalid binary property list trailer.");
+        }
+
+        long[] offsets = new long[(int) objectCount];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = readSizedInt(buffer, (int) offsetTableOffset + i * offsetIntSize, offsetIntSize);
+        }
+
+        return new BinaryReader(buffer, offsets, objectRefSize).readObject((int) topObject, 0);
+    }
+
+    private static long readSizedInt(ByteBuffer buffer, int position, int byteCount) {
+        long value = 0;
+
+        for (int i = 0; i < byteCount; i++) {
+            value = (value << 8) | (buffer.get(position + i) & 0xFF);
+        }
+
+        return value;
+    }
+
+    private static class BinaryReader {
+        // Deeper nesting can only come from a reference cycle
+        private static final int MAX_DEPTH = 512;
+
+        final ByteBuffer buffer;
+        final long[] offsets;
+        final int objectRefSize;
+
+        BinaryReader(ByteBuffer buffer, long[] offsets, int objectRefSize) {
+            this.buffer = buffer;
+            this.offsets = offsets;
+            this.objectRefSize = objectRefSize;
+        }
+
+        Object readObject(int number, int depth) throws IOException {
+            if (number < 0 || number >= offsets.length || depth > MAX_DEPTH) {
+                throw new IOException("Invalid object reference " + number + ".");
+            }
+
+            int position = (int) offsets[number];
+            int marker = buffer.get(position) & 0xFF;
+            int type = marker >> 4;
+            int info = marker & 0x0F;
+
+            if (type == 0x0 && (info == 0x08 || info == 0x09)) {
+                return info == 0x09;
+            } else if (type == 0x1) {
+                return readSizedInt(buffer, position + 1, 1 << info);
+            }
+
+            // The count of a string or container follows an overflow marker
+            int start = position + 1;
+            long count = info;
+            if (info == 0x0F) {
+                int countMarker = buffer.get(start) & 0xFF;
+                if ((countMarker >> 4) != 0x1) {
+                    throw new IOException("Invalid count at offset " + start + ".");
+                }
+
+                int byteCount = 1 << (countMarker & 0x0F);
+                count = readSizedInt(buffer, start + 1, byteCount);
+                start += 1 + byteCount;
+            }
+
+            if (count < 0 || count > buffer.capacity()) {
+                throw new IOException("Invalid count at offset " + position + ".");
+            }
+
+            switch (type) {
+                case 0x5:
+                    return new String(buffer.array(), start, (int) count, StandardCharsets.US_ASCII);
+
+                case 0x6:
+                    return new String(buffer.array(), start, (int) count * 2, StandardCharsets.UTF_16BE);
+
+                case 0xA: {
+                    List<Object> array = new ArrayList<>((int) count);
+                    for (int i = 0; i < count; i++) {
+                        array.add(readObject(readReference(start, i), depth + 1));
+                    }
+
+                    return array;
+                }
+
+                case 0xD: {
+                    Map<String, Object> dict = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        Object key = readObject(readReference(start, i), depth + 1);
+                        if (!(key instanceof String)) {
+                            throw new IOException("Dictionary key is not a string.");
+                        }
+
+                        dict.put((String) key, readObject(readReference(start, (int) count + i), depth + 1));
+                    }
+
+                    return dict;
+                }
+
+                default:
+                    throw new IOException("Unsupported object type 0x" + Integer.toHexString(marker) + ".");
+            }
+        }
+
+        private int readReference(int start, int index) {
+            return (int) readSizedInt(buffer, start + index * objectRefSize, objectRefSize);
+        }
+    }
+}
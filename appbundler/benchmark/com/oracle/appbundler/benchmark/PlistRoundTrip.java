@@ -0,0 +1,213 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.oracle.appbundler.plist.BinaryPlistWriter;
+import com.oracle.appbundler.plist.PlistWriter;
+import com.oracle.appbundler.plist.XMLPlistWriter;
+
+/**
+ * Checks that the XML and binary plist writers round-trip: each sample
+ * property list is written in both formats, and both are read back to the
+ * values that were written. The sizes of both formats are printed for each
+ * sample. Exits with a non-zero status if any sample does not round-trip.
+ */
+public class PlistRoundTrip {
+    private PlistRoundTrip() {
+    }
+
+    /**
+     * Writes the given value, a map, list, string, long or boolean, in the
+     * XML or binary format.
+     */
+    public static byte[] write(Object value, boolean binary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PlistWriter writer = binary ? new BinaryPlistWriter(out) : new XMLPlistWriter(out);
+
+        write(writer, value);
+        writer.finish();
+
+        return out.toByteArray();
+    }
+
+    private static void write(PlistWriter writer, Object value) throws IOException {
+        if (value instanceof Map) {
+            writer.writeStartDict();
+
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeKey((String) entry.getKey());
+                write(writer, entry.getValue());
+            }
+
+            writer.writeEnd();
+        } else if (value instanceof List) {
+            writer.writeStartArray();
+
+            for (Object element : (List<?>) value) {
+                write(writer, element);
+            }
+
+            writer.writeEnd();
+        } else if (value instanceof String) {
+            writer.writeString((String) value);
+        } else if (value instanceof Long) {
+            writer.writeInteger((Long) value);
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean((Boolean) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + value + ".");
+        }
+    }
+
+    /**
+     * Writes the given value in both formats and checks that both read back
+     * to it. Returns the sizes of the XML and binary forms.
+     */
+    public static long[] check(String name, Object value) throws IOException {
+        byte[] xml = write(value, false);
+        byte[] binary = write(value, true);
+
+        Object xmlValue = PlistReader.readXML(xml);
+        Object binaryValue = PlistReader.readBinary(binary);
+
+        if (!value.equals(xmlValue)) {
+            throw new IllegalStateException(name + ": the XML property list does not read back to its values.");
+        }
+
+        if (!value.equals(binaryValue)) {
+            throw new IllegalStateException(name + ": the binary property list does not read back to its values.");
+        }
+
+        return new long[] {xml.length, binary.length};
+    }
+
+    /**
+     * Returns the samples to check: Info.plists of several sizes, random
+     * property lists, and the limits of the binary encoding.
+     */
+    private static Map<String, Object> createSamples() {
+        Map<String, Object> samples = new LinkedHashMap<>();
+
+        for (int documentTypes : new int[] {0, 10, 1000}) {
+            samples.put("Info.plist, " + documentTypes + " document types",
+                new SyntheticCorpus(0).createInfoPlist(documentTypes));
+        }
+
+        for (int seed = 0; seed < 20; seed++) {
+            int valueCount = 10 << (seed % 10);
+            samples.put("random, seed " + seed + ", " + valueCount + " values",
+                new SyntheticCorpus(seed).createPlist(valueCount));
+        }
+
+        List<Object> integers = new ArrayList<>();
+        for (int shift = 0; shift < 64; shift++) {
+            long value = 1L << shift;
+            integers.add(value - 1);
+            integers.add(value);
+            integers.add(-value);
+        }
+
+        integers.add(Long.MAX_VALUE);
+        samples.put("integer limits", integers);
+
+        List<Object> strings = new ArrayList<>();
+        for (int length = 0; length < 20; length++) {
+            StringBuilder ascii = new StringBuilder();
+            StringBuilder unicode = new StringBuilder();
+
+            while (ascii.length() < length) {
+                ascii.append('a');
+                unicode.append((unicode.length() % 2 == 0) ? "é" : "😀");
+            }
+
+            strings.add(ascii.toString());
+            strings.add(unicode.toString());
+        }
+
+        strings.add("<key>&amp;</key>");
+        samples.put("string lengths", strings);
+
+        // More than 65536 distinct objects need four byte references
+        List<Object> manyObjects = new ArrayList<>();
+        for (long i = 0; i < 70000; i++) {
+            manyObjects.add(i + 1000);
+        }
+
+        samples.put("70000 objects", manyObjects);
+
+        // Offsets beyond 65536 bytes need four byte offsets
+        List<Object> longStrings = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder value = new StringBuilder();
+            while (value.length() < 4000) {
+                value.append(i).append(' ');
+            }
+
+            longStrings.add(value.toString());
+        }
+
+        samples.put("long strings", longStrings);
+
+        Object nested = new ArrayList<>();
+        for (int depth = 0; depth < 100; depth++) {
+            Map<String, Object> dict = new LinkedHashMap<>();
+            dict.put("child", nested);
+            dict.put("empty", new LinkedHashMap<String, Object>());
+            nested = dict;
+        }
+
+        samples.put("100 levels", nested);
+
+        return samples;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int failureCount = 0;
+
+        for (Map.Entry<String, Object> sample : createSamples().entrySet()) {
+            try {
+                long[] sizes = check(sample.getKey(), sample.getValue());
+                System.out.println(sample.getKey() + ": XML " + sizes[0] + " bytes, binary " + sizes[1] + " bytes");
+            } catch (IllegalStateException exception) {
+                System.err.println(exception.getMessage());
+                failureCount++;
+            }
+        }
+
+        if (failureCount > 0) {
+            System.err.println(failureCount + " samples did not round-trip.");
+            System.exit(1);
+        }
+    }
+}
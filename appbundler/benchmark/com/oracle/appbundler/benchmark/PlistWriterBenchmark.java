@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.appbundler.plist.BinaryPlistWriter;
+import com.oracle.appbundler.plist.PlistWriter;
+import com.oracle.appbundler.plist.XMLPlistWriter;
+import com.oracle.appbundler.xml.IndentingXMLStreamWriter;
+
+/**
+ * Compares the plist writers on an Info.plist with the given number of
+ * document types. <code>stax</code> is the StAX and
+ * <code>IndentingXMLStreamWriter</code> stack that <code>xml</code> replaced;
+ * both produce the same bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlistWriterBenchmark {
+    private static final String DTD = "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">";
+
+    @Param({"10", "100", "1000"})
+    public int documentTypes;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Benchmark
+    public int xml() throws IOException {
+        out.reset();
+        write(new XMLPlistWriter(out));
+        return out.size();
+    }
+
+    @Benchmark
+    public int binary() throws IOException {
+        out.reset();
+        write(new BinaryPlistWriter(out));
+        return out.size();
+    }
+
+    @Benchmark
+    public int stax() throws IOException, XMLStreamException {
+        out.reset();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        XMLStreamWriter xout = new IndentingXMLStreamWriter(XMLOutputFactory.newInstance().createXMLStreamWriter(writer));
+
+        xout.writeStartDocument();
+        xout.writeDTD(DTD);
+        xout.writeStartElement("plist");
+        xout.writeAttribute("version", "1.0");
+        write(new StaxPlistWriter(xout));
+        xout.writeEndElement();
+        xout.writeEndDocument();
+
+        writer.flush();
+        return out.size();
+    }
+
+    /**
+     * Writes a plist shaped like one written by the bundler.
+     */
+    private void write(PlistWriter plist) throws IOException {
+        plist.writeStartDict();
+
+        writeProperty(plist, "CFBundleDevelopmentRegion", "English");
+        writeProperty(plist, "CFBundleExecutable", "JavaAppLauncher");
+        writeProperty(plist, "CFBundleIdentifier", "com.example.Benchmark");
+        writeProperty(plist, "NSHumanReadableCopyright", "Copyright & <Trademarks>");
+
+        plist.writeKey("NSHighResolutionCapable");
+        plist.writeBoolean(true);
+
+        plist.writeKey("CFBundleDocumentTypes");
+        plist.writeStartArray();
+
+        for (int i = 0; i < documentTypes; i++) {
+            plist.writeStartDict();
+
+            plist.writeKey("CFBundleTypeExtensions");
+            plist.writeStartArray();
+            plist.writeString("ext" + i);
+            plist.writeString("alt" + i);
+            plist.writeEnd();
+
+            writeProperty(plist, "CFBundleTypeIconFile", "document.icns");
+            writeProperty(plist, "CFBundleTypeName", "Document type " + i);
+            writeProperty(plist, "CFBundleTypeRole", "Editor");
+            writeProperty(plist, "LSTypeIsPackage", "false");
+
+            plist.writeEnd();
+        }
+
+        plist.writeEnd();
+
+        plist.writeKey("JVMOptions");
+        plist.writeStartArray();
+        plist.writeString("-Xmx1g");
+        plist.writeString("-Dapple.laf.useScreenMenuBar=true");
+        plist.writeEnd();
+
+        plist.writeKey("JVMArguments");
+        plist.writeStartArray();
+        plist.writeEnd();
+
+        plist.writeEnd();
+        plist.finish();
+    }
+
+    private static void writeProperty(PlistWriter plist, String key, String value) throws IOException {
+        plist.writeKey(key);
+        plist.writeString(value);
+    }
+
+    /**
+     * Adapts the StAX writer to the writer interface.
+     */
+    private static class StaxPlistWriter implements PlistWriter {
+        private final XMLStreamWriter xout;
+
+        StaxPlistWriter(XMLStreamWriter xout) {
+            this.xout = xout;
+        }
+
+        @Override
+        public void writeStartDict() throws IOException {
+            try {
+                xout.writeStartElement("dict");
+            } catch (XMLStreamException exception) {
+                throw new IOException(exception);
+            }
+        }
+
+        @Override
+        public void writeStartArray() throws IOException {
+            try {
+                xout.writeStartElement("array");
+            } catch (XMLStreamException exception) {
+                throw new IOException(exception);
+            }
+        }
+
+        @Override
+        public void writeEnd() throws IOException {
+            try {
+                xout.writeEndElement();
+            } catch (XMLStreamException exception) {
+                throw new IOException(exception);
+            }
+        }
+
+        @Override
+        public void writeKey(String key) throws IOException {
+            writeElement("key", key);
+        }
+
+        @Override
+        public void writeString(String value) throws IOException {
+            writeElement("string", value);
+        }
+
+        @Override
+        public void writeBoolean(boolean value) throws IOException {
+            try {
+                xout.writeEmptyElement(value ? "true" : "false");
+            } catch (XMLStreamException exception) {
+                throw new IOException(exception);
+            }
+        }
+
+        @Override
+        public void writeInteger(long value) throws IOException {
+            writeElement("integer", Long.toString(value));
+        }
+
+        @Override
+        public void finish() throws IOException {
+        }
+
+        private void writeElement(String tag, String text) throws IOException {
+            try {
+                xout.writeStartElement(tag);
+                xout.writeCharacters(text);
+                xout.writeEndElement();
+            } catch (XMLStreamException exception) {
+                throw new IOException(exception);
+            }
+        }
+    }
+}
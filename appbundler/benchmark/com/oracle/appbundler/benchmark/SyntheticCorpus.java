@@ -0,0 +1,333 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic inputs for benchmarks: runtimes shaped like a JDK
+ * bundle, class paths of jars, document type declarations and property
+ * lists. The same seed always produces the same corpus.
+ */
+public class SyntheticCorpus {
+    private static final int FILES_PER_DIRECTORY = 32;
+    private static final int MIN_FILE_SIZE = 256;
+    private static final int MAX_FILE_SIZE = 256 * 1024;
+
+    private static final String RUNTIME_INFO_PLIST = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+        + "<plist version=\"1.0\">\n<dict>\n"
+        + "  <key>CFBundleIdentifier</key>\n  <string>com.example.jdk</string>\n"
+        + "</dict>\n</plist>\n";
+
+    private final Random random;
+
+    public SyntheticCorpus(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Creates a runtime bundle with the given number of files below
+     * <code>Contents/Home/jre</code> and returns its home directory. File
+     * sizes are spread log-uniformly, so a few large files hold most of the
+     * data, as in a real runtime.
+     */
+    public File createRuntime(File directory, int fileCount) throws IOException {
+        File contentsDirectory = new File(directory, "jdk.jdk/Contents");
+        File homeDirectory = new File(contentsDirectory, "Home");
+
+        write(new File(contentsDirectory, "Info.plist"), RUNTIME_INFO_PLIST.getBytes(StandardCharsets.UTF_8));
+        write(new File(contentsDirectory, "MacOS/libjli.dylib"), createContent(16 * 1024));
+        write(new File(homeDirectory, "bin/java"), createContent(16 * 1024));
+
+        for (int i = 0; i < fileCount; i++) {
+            File libDirectory = new File(homeDirectory, "jre/lib/d" + (i / FILES_PER_DIRECTORY));
+
+            if (i % 10 == 0) {
+                createJar(new File(libDirectory, "j" + i + ".jar"), 50);
+            } else {
+                write(new File(libDirectory, "f" + i + ".dat"), createContent(getFileSize()));
+            }
+        }
+
+        return homeDirectory;
+    }
+
+    /**
+     * Creates the given number of jars and returns them in class path order.
+     */
+    public List<File> createClassPath(File directory, int jarCount, int classesPerJar) throws IOException {
+        List<File> jars = new ArrayList<>();
+
+        for (int i = 0; i < jarCount; i++) {
+            File jar = new File(directory, "lib" + i + ".jar");
+            createJar(jar, classesPerJar);
+            jars.add(jar);
+        }
+
+        return jars;
+    }
+
+    /**
+     * Creates a jar of class-like entries in distinct packages.
+     */
+    public void createJar(File jar, int classCount) throws IOException {
+        jar.getParentFile().mkdirs();
+        String packageName = "com/example/p" + random.nextInt(1 << 20);
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            out.write("Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+
+            for (int i = 0; i < classCount; i++) {
+                byte[] content = createContent(512 + random.nextInt(4096));
+                content[0] = (byte) 0xCA;
+                content[1] = (byte) 0xFE;
+                content[2] = (byte) 0xBA;
+                content[3] = (byte) 0xBE;
+
+                out.putNextEntry(new ZipEntry(packageName + "/C" + i + ".class"));
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Returns the extensions of the given number of document types.
+     */
+    public List<String> createDocumentTypeExtensions(int count) {
+        List<String> extensions = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            extensions.add("x" + Integer.toString(i, 36) + ",y" + Integer.toString(i, 36));
+        }
+
+        return extensions;
+    }
+
+    /**
+     * Returns the values of an Info.plist like one written by the bundler,
+     * with the given number of document types.
+     */
+    public Map<String, Object> createInfoPlist(int documentTypes) {
+        Map<String, Object> plist = new LinkedHashMap<>();
+        plist.put("CFBundleDevelopmentRegion", "English");
+        plist.put("CFBundleExecutable", "JavaAppLauncher");
+        plist.put("CFBundleIdentifier", "com.example.Benchmark");
+        plist.put("NSHumanReadableCopyright", "Copyright & <Trademarks>");
+        plist.put("NSHighResolutionCapable", true);
+
+        List<Object> documentTypeList = new ArrayList<>();
+        int i = 0;
+        for (String extensions : createDocumentTypeExtensions(documentTypes)) {
+            Map<String, Object> documentType = new LinkedHashMap<>();
+            documentType.put("CFBundleTypeExtensions", new ArrayList<Object>(Arrays.asList(extensions.split(","))));
+            documentType.put("CFBundleTypeIconFile", "document.icns");
+            documentType.put("CFBundleTypeName", "Document type " + i++);
+            documentType.put("CFBundleTypeRole", "Editor");
+            documentType.put("LSTypeIsPackage", "false");
+            documentTypeList.add(documentType);
+        }
+
+        plist.put("CFBundleDocumentTypes", documentTypeList);
+        plist.put("JVMOptions", new ArrayList<Object>(Arrays.asList("-Xmx1g", "-Dapple.laf.useScreenMenuBar=true")));
+        plist.put("JVMArguments", new ArrayList<Object>());
+
+        return plist;
+    }
+
+    /**
+     * Returns a random property list of about the given number of values.
+     * Dictionaries and arrays are nested, strings have all lengths and mix
+     * scripts, markup characters and supplementary characters, and integers
+     * have all widths and signs. Strings contain no carriage returns or
+     * control characters other than tabs and line feeds, which an XML
+     * property list cannot represent.
+     */
+    public Map<String, Object> createPlist(int valueCount) {
+        int[] remaining = {valueCount};
+        Map<String, Object> plist = new LinkedHashMap<>();
+
+        while (remaining[0] > 0) {
+            plist.put(createPlistString() + "#" + plist.size(), createPlistValue(1, remaining));
+        }
+
+        return plist;
+    }
+
+    private Object createPlistValue(int depth, int[] remaining) {
+        remaining[0]--;
+
+        switch (random.nextInt((depth < 8 && remaining[0] > 0) ? 6 : 4)) {
+            case 0:
+            case 1:
+                return createPlistString();
+
+            case 2:
+                return createPlistInteger();
+
+            case 3:
+                return random.nextBoolean();
+
+            case 4: {
+                Map<String, Object> dict = new LinkedHashMap<>();
+                int size = random.nextInt(Math.min(remaining[0], 40) + 1);
+
+                for (int i = 0; i < size && remaining[0] > 0; i++) {
+                    dict.put(createPlistString() + "#" + i, createPlistValue(depth + 1, remaining));
+                }
+
+                return dict;
+            }
+
+            default: {
+                List<Object> array = new ArrayList<>();
+                int size = random.nextInt(Math.min(remaining[0], 40) + 1);
+
+                for (int i = 0; i < size && remaining[0] > 0; i++) {
+                    array.add(createPlistValue(depth + 1, remaining));
+                }
+
+                return array;
+            }
+        }
+    }
+
+    private String createPlistString() {
+        int length;
+        switch (random.nextInt(8)) {
+            case 0:
+                // Around the largest length that fits into a marker
+                length = 13 + random.nextInt(4);
+                break;
+
+            case 1:
+                length = 100 + random.nextInt(5000);
+                break;
+
+            default:
+                length = random.nextInt(20);
+                break;
+        }
+
+        StringBuilder value = new StringBuilder();
+        boolean ascii = random.nextBoolean();
+
+        while (value.length() < length) {
+            int kind = ascii ? random.nextInt(3) : random.nextInt(6);
+
+            if (kind == 0) {
+                value.append("<>&\"' \t\n".charAt(random.nextInt(8)));
+            } else if (kind <= 2) {
+                value.append((char) ('a' + random.nextInt(26)));
+            } else if (kind == 3) {
+                value.append((char) (0xC0 + random.nextInt(0x40)));
+            } else if (kind == 4) {
+                value.append((char) (0x4E00 + random.nextInt(0x5000)));
+            } else {
+                value.appendCodePoint(0x1F600 + random.nextInt(0x50));
+            }
+        }
+
+        return value.toString();
+    }
+
+    private long createPlistInteger() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(256);
+
+            case 1:
+                return random.nextInt();
+
+            case 2:
+                // Around the limits of each width
+                long limit = 1L << (8 << random.nextInt(3));
+                return limit - 1 + random.nextInt(2);
+
+            default:
+                return random.nextLong();
+        }
+    }
+
+    private int getFileSize() {
+        double exponent = Math.log(MIN_FILE_SIZE)
+            + random.nextDouble() * (Math.log(MAX_FILE_SIZE) - Math.log(MIN_FILE_SIZE));
+        return (int) Math.exp(exponent);
+    }
+
+    /**
+     * Returns content that compresses about as well as class files.
+     */
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (random.nextInt(16) + (random.nextInt(4) == 0 ? random.nextInt(240) : 'a'));
+        }
+
+        return content;
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * Writes a corpus to the given directory, e.g. to run the task on it
+     * from a build file.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: SyntheticCorpus <directory> <runtime files> <class path jars>");
+            System.exit(1);
+        }
+
+        File directory = new File(args[0]);
+        SyntheticCorpus corpus = new SyntheticCorpus(0);
+        corpus.createRuntime(new File(directory, "runtime"), Integer.parseInt(args[1]));
+        corpus.createClassPath(new File(directory, "lib"), Integer.parseInt(args[2]), 100);
+    }
+}
@@ -69,6 +69,7 @@ static NSWindow* splashScreenWindow = nil;
 
 int launch(char *, int, char **);
 NSString * findDylib (bool);
+NSString * findRuntimeDylib (NSString *);
 int extractMajorVersion (NSString *vstring)
 ;NSString * convertRelativeFilePath(NSString * path);
 void displaySplashScreen(NSString* imagePath);
@@ -145,7 +146,7 @@ int launch(char *commandName, int progargc, char *progargv[]) {
     NSString *runtimePath = [[mainBundle builtInPlugInsPath] stringByAppendingPathComponent:runtime];
     if (runtime != nil)
     {
-        javaDylib = [runtimePath stringByAppendingPathComponent:@"Contents/Home/jre/lib/jli/libjli.dylib"];
+        javaDylib = findRuntimeDylib (runtimePath);
     }
     else
     {
@@ -540,6 +541,32 @@ NSString * findDylib (
     return nil;
 }
 
+/**
+ *  Locate libjli.dylib in a bundled runtime. JDK 8 keeps it in the jre
+ *  folder, while images linked from the modules of JDK 9 or later keep it
+ *  directly in lib.
+ */
+NSString * findRuntimeDylib (NSString *runtimePath)
+{
+    NSArray *candidates = [NSArray arrayWithObjects:
+        @"Contents/Home/jre/lib/jli/libjli.dylib",
+        @"Contents/Home/lib/libjli.dylib",
+        @"Contents/Home/lib/jli/libjli.dylib",
+        nil];
+
+    NSFileManager *fileManager = [NSFileManager defaultManager];
+
+    for (NSString *candidate in candidates) {
+        NSString *dylib = [runtimePath stringByAppendingPathComponent:candidate];
+
+        if ([fileManager fileExistsAtPath:dylib]) {
+            return dylib;
+        }
+    }
+
+    return [runtimePath stringByAppendingPathComponent:[candidates objectAtIndex:0]];
+}
+
 /**
  *  Extract the Java major version number from a string. We expect the input
  *  to look like either either "1.X.Y_ZZ" or "jkd1.X.Y_ZZ", and the returned
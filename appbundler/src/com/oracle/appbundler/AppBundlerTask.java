@@ -27,32 +27,47 @@
 package com.oracle.appbundler;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-
-import com.oracle.appbundler.xml.IndentingXMLStreamWriter;
+import com.oracle.appbundler.archive.BundleArchive;
+import com.oracle.appbundler.classfile.AttributeStripper;
+import com.oracle.appbundler.classfile.ClassIndex;
+import com.oracle.appbundler.classfile.ClassLoadLog;
+import com.oracle.appbundler.classfile.ClassLoadOrder;
+import com.oracle.appbundler.plist.PlistWriter;
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Reference;
@@ -87,10 +102,39 @@ public class AppBundlerTask extends Task {
     private boolean hideDockIcon = false;
     private boolean isDebug = false;
     private boolean allowHttp = false;
+    private boolean incremental = false;
+    private boolean integrity = false;
+    private int copyThreads = 0;
+    private CopyStrategy copyStrategy = CopyStrategy.COPY;
+    private IOProfile ioProfile = null;
+    private long ioMemory = IOProfile.DEFAULT_MEMORY_BUDGET;
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.COPY;
+    private Set<String> locales = null;
+    private boolean pruneRuntime = false;
+    private boolean mergeClassPath = false;
+    private JarCompression jarCompression = JarCompression.KEEP;
+    private boolean slimJars = false;
+    private Set<String> stripAttributes = new LinkedHashSet<>(Arrays.asList("LocalVariableTable",
+        "LocalVariableTypeTable"));
+    private PlistFormat plistFormat = PlistFormat.XML;
+    private boolean explicitClassPath = false;
+    private List<Pattern> classPathOrder = new ArrayList<>();
+    private boolean optimizeClassPath = false;
+    private File classLoadLog = null;
+    private boolean classList = false;
+    private String classListOption = null;
+    private File classListReference = null;
+    private String metricsPrefix = null;
+    private File cacheDir = null;
+    private File archive = null;
+    private int archiveLevel = Deflater.DEFAULT_COMPRESSION;
+    private long cacheSize = DEFAULT_CACHE_SIZE;
+    private File metricsFile = null;
 
     // JVM info properties
     private String mainClassName = null;
     private FileSet runtime = null;
+    private ModularRuntime modularRuntime = null;
     private ArrayList<FileSet> classPath = new ArrayList<>();
     private ArrayList<FileSet> libraryPath = new ArrayList<>();
     private ArrayList<Option> options = new ArrayList<>();
@@ -98,25 +142,57 @@ public class AppBundlerTask extends Task {
     private ArrayList<String> architectures = new ArrayList<>();
     private ArrayList<String> registeredProtocols = new ArrayList<>();
     private ArrayList<BundleDocument> bundleDocuments = new ArrayList<>();
+    private ArrayList<KeepRule> keepRules = new ArrayList<>();
+    private ArrayList<MergeRule> mergeRules = new ArrayList<>();
+    private ArrayList<Variant> variants = new ArrayList<>();
     
     private Reference classPathRef;
 
     private static final String EXECUTABLE_NAME = "JavaAppLauncher";
     private static final String DEFAULT_ICON_NAME = "GenericApp.icns";
     private static final String OS_TYPE_CODE = "APPL";
-
-    private static final String PLIST_DTD = "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">";
-    private static final String PLIST_TAG = "plist";
-    private static final String PLIST_VERSION_ATTRIBUTE = "version";
-    private static final String DICT_TAG = "dict";
-    private static final String KEY_TAG = "key";
-    private static final String ARRAY_TAG = "array";
-    private static final String STRING_TAG = "string";
     
-    private static final int BUFFER_SIZE = 2048;
+    private static final String LOCALIZATION_SUFFIX = ".lproj";
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String JNILIB_SUFFIX = ".jnilib";
+    private static final String CLASS_LIST_NAME = "classlist";
+    private static final String JAVA_PATH = "$APP_ROOT/Contents/Java";
+    private static final long DEFAULT_CACHE_SIZE = 2L << 30;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Generates the content of a file in the bundle.
+     */
+    private interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // Contents of res.zip, shared by all bundles built with this class loader
+    private static Map<String, byte[]> resources = null;
+
     private List<PlistEntry> customPlistEntries = new ArrayList<>();
     private boolean includeJavaRootInClasspath = false;
 
+    // Bundle state for the current execution
+    private File rootDirectory = null;
+    private BundleManifest manifest = null;
+    private BundleManifest previousManifest = null;
+    private CopyEngine copyEngine = null;
+    private CopyPipeline copyPipeline = null;
+    private ContentStore contentStore = null;
+    private FileSetScanner fileSetScanner = null;
+    private BundleArchive bundleArchive = null;
+    private BuildMetrics metrics = null;
+    private Deduplicator deduplicator = null;
+    private IntegrityManifest integrityManifest = null;
+    private Map<File, File> runtimeJars = new LinkedHashMap<>();
+    private List<File> mergedJars = new ArrayList<>();
+    private List<File> classPathSources = new ArrayList<>();
+    private Map<String, File> slimmedJars = new LinkedHashMap<>();
+    private List<String> optimizedJarNames = null;
+    private Set<String> javaFileNames = new LinkedHashSet<>();
+
     public void setOutputDirectory(File outputDirectory) {
         this.outputDirectory = outputDirectory;
     }
@@ -187,6 +263,182 @@ public class AppBundlerTask extends Task {
 
     public void setAllowHttp(boolean allowed) { this.allowHttp = allowed; }
 
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public void setIntegrity(boolean integrity) {
+        this.integrity = integrity;
+    }
+
+    public void setCopyThreads(int copyThreads) {
+        if (copyThreads < 1) {
+            throw new BuildException("Invalid copy thread count.");
+        }
+
+        this.copyThreads = copyThreads;
+    }
+
+    public void setCopyStrategy(String copyStrategy) {
+        this.copyStrategy = CopyStrategy.forValue(copyStrategy);
+    }
+
+    public void setIOProfile(String ioProfile) {
+        this.ioProfile = IOProfile.forValue(ioProfile);
+    }
+
+    public void setIOMemory(String ioMemory) {
+        this.ioMemory = parseSize(ioMemory, "I/O memory budget");
+
+        if (this.ioMemory == 0) {
+            throw new BuildException("Invalid I/O memory budget: " + ioMemory);
+        }
+    }
+
+    public void setDuplicates(String duplicates) {
+        this.duplicatePolicy = DuplicatePolicy.forValue(duplicates);
+    }
+
+    public void setArchive(File archive) {
+        ArchiveFormat.forFile(archive);
+
+        this.archive = archive;
+    }
+
+    public void setArchiveLevel(int archiveLevel) {
+        if (archiveLevel < 0 || archiveLevel > 9) {
+            throw new BuildException("Invalid archive compression level.");
+        }
+
+        this.archiveLevel = archiveLevel;
+    }
+
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public void setCacheSize(String cacheSize) {
+        this.cacheSize = parseSize(cacheSize, "cache size");
+    }
+
+    private static long parseSize(String size, String description) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+
+        if (value.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (value.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (value.endsWith("g")) {
+            unit = 1L << 30;
+        }
+
+        long result;
+        try {
+            result = Long.parseLong((unit == 1) ? value : value.substring(0, value.length() - 1)) * unit;
+        } catch (NumberFormatException exception) {
+            throw new BuildException("Invalid " + description + ": " + size);
+        }
+
+        if (result < 0) {
+            throw new BuildException("Invalid " + description + ": " + size);
+        }
+
+        return result;
+    }
+
+    public void setPruneRuntime(boolean pruneRuntime) {
+        this.pruneRuntime = pruneRuntime;
+    }
+
+    public void setMergeClassPath(boolean mergeClassPath) {
+        this.mergeClassPath = mergeClassPath;
+    }
+
+    public void setJarCompression(String jarCompression) {
+        this.jarCompression = JarCompression.forValue(jarCompression);
+    }
+
+    public void setSlimJars(boolean slimJars) {
+        this.slimJars = slimJars;
+    }
+
+    public void setStripAttributes(String stripAttributes) {
+        this.stripAttributes = new LinkedHashSet<>();
+
+        for (String attributeName : stripAttributes.split(",")) {
+            attributeName = attributeName.trim();
+
+            if (attributeName.length() > 0) {
+                if (!AttributeStripper.DEBUG_ATTRIBUTES.contains(attributeName)) {
+                    throw new BuildException("Invalid attribute to strip: " + attributeName);
+                }
+
+                this.stripAttributes.add(attributeName);
+            }
+        }
+    }
+
+    public void setPlistFormat(String plistFormat) {
+        this.plistFormat = PlistFormat.forValue(plistFormat);
+    }
+
+    public void setExplicitClassPath(boolean explicitClassPath) {
+        this.explicitClassPath = explicitClassPath;
+    }
+
+    public void setClassPathOrder(String patternList) {
+        classPathOrder = new ArrayList<>();
+
+        for (String pattern : patternList.split(",")) {
+            pattern = pattern.trim();
+
+            if (pattern.length() > 0) {
+                classPathOrder.add(KeepRule.compile(pattern));
+            }
+        }
+    }
+
+    public void setOptimizeClassPath(boolean optimizeClassPath) {
+        this.optimizeClassPath = optimizeClassPath;
+    }
+
+    public void setClassLoadLog(File classLoadLog) {
+        this.classLoadLog = classLoadLog;
+    }
+
+    public void setClassList(boolean classList) {
+        this.classList = classList;
+    }
+
+    public void setClassListOption(String classListOption) {
+        this.classListOption = classListOption;
+    }
+
+    public void setClassListReference(File classListReference) {
+        this.classListReference = classListReference;
+    }
+
+    public void setMetricsPrefix(String metricsPrefix) {
+        this.metricsPrefix = metricsPrefix;
+    }
+
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public void setLocales(String localeList) {
+        locales = new HashSet<>();
+
+        for (String locale : localeList.split(",")) {
+            locale = locale.trim();
+
+            if (locale.length() > 0) {
+                locales.add(locale.endsWith(LOCALIZATION_SUFFIX) ? locale : locale + LOCALIZATION_SUFFIX);
+            }
+        }
+    }
+
     public void setSupportsAutomaticGraphicsSwitching(boolean supportsAutomaticGraphicsSwitching) {
         this.supportsAutomaticGraphicsSwitching = supportsAutomaticGraphicsSwitching;
     }
@@ -196,7 +448,7 @@ public class AppBundlerTask extends Task {
     }
 
     public void addConfiguredRuntime(FileSet runtime) throws BuildException {
-        if (this.runtime != null) {
+        if (this.runtime != null || modularRuntime != null) {
             throw new BuildException("Runtime already specified.");
         }
 
@@ -219,6 +471,18 @@ public class AppBundlerTask extends Task {
         });
     }
              
+    public void addConfiguredModularRuntime(ModularRuntime modularRuntime) throws BuildException {
+        if (runtime != null || this.modularRuntime != null) {
+            throw new BuildException("Runtime already specified.");
+        }
+
+        if (modularRuntime.getJmods() == null || !modularRuntime.getJmods().isDirectory()) {
+            throw new BuildException("Modular runtime requires a jmods directory.");
+        }
+
+        this.modularRuntime = modularRuntime;
+    }
+
     public void setClasspathRef(Reference ref) {   
         this.classPathRef = ref;                                         
     }
@@ -237,6 +501,30 @@ public class AppBundlerTask extends Task {
         this.bundleDocuments.add(document);
     }
 
+    public void addConfiguredKeep(KeepRule keepRule) throws BuildException {
+        if (keepRule.getPattern() == null) {
+            throw new BuildException("Pattern is required.");
+        }
+
+        keepRules.add(keepRule);
+    }
+
+    public void addConfiguredMergeRule(MergeRule mergeRule) throws BuildException {
+        if (mergeRule.getPattern() == null) {
+            throw new BuildException("Pattern is required.");
+        }
+
+        mergeRules.add(mergeRule);
+    }
+
+    public void addConfiguredVariant(Variant variant) throws BuildException {
+        if (variant.getName() == null) {
+            throw new BuildException("Name is required.");
+        }
+
+        variants.add(variant);
+    }
+
     public void addConfiguredOption(Option option) throws BuildException {
         String value = option.getValue();
 
@@ -344,62 +632,166 @@ public class AppBundlerTask extends Task {
             throw new IllegalStateException("Main class name is required.");
         }
 
+        if (classLoadLog != null && !classLoadLog.isFile()) {
+            throw new IllegalStateException("Class load log does not exist.");
+        }
+
+        if (archive != null) {
+            // These read back from or update a bundle on disk
+            if (incremental || pruneRuntime || classList || !variants.isEmpty()) {
+                throw new IllegalStateException(
+                    "Archive output cannot be combined with incremental, pruneRuntime, classList or variants.");
+            }
+        }
+
+        Set<String> variantNames = new HashSet<>();
+        variantNames.add(name);
+
+        for (Variant variant : variants) {
+            if (!variantNames.add(variant.getName())) {
+                throw new IllegalStateException("Duplicate variant name: " + variant.getName());
+            }
+
+            if (variant.getIcon() != null && !variant.getIcon().isFile()) {
+                throw new IllegalStateException("Invalid variant icon: " + variant.getIcon());
+            }
+        }
+
         // Create the app bundle
+        File bundleDirectory = new File(outputDirectory, name + ".app");
+        File stagingDirectory = new File(outputDirectory, "." + name + ".app.staging");
+        File runtimeImageDirectory = new File(outputDirectory, "." + name + ".app.runtime");
+        File archiveTempFile = (archive == null) ? null
+            : new File(archive.getAbsoluteFile().getParentFile(), "." + archive.getName() + ".tmp");
+        OutputStream archiveOutputStream = null;
+        boolean complete = false;
+
+        copyEngine = new CopyEngine(getCopyThreads());
+        copyPipeline = (ioProfile == null) ? null : new CopyPipeline(ioProfile, ioMemory);
+        contentStore = null;
+        fileSetScanner = new FileSetScanner(getProject(), (cacheDir == null) ? null : new File(cacheDir, "scans"));
+        metrics = (metricsPrefix != null || metricsFile != null) ? new BuildMetrics() : null;
+        deduplicator = new Deduplicator(duplicatePolicy);
+        integrityManifest = integrity ? new IntegrityManifest() : null;
+        runtimeJars.clear();
+        mergedJars.clear();
+        slimmedJars.clear();
+        classPathSources.clear();
+        optimizedJarNames = null;
+        javaFileNames.clear();
+
         try {
             System.out.println("Creating app bundle: " + name);
 
+            startPhase("setup");
+
+            if (cacheDir != null) {
+                // A plain copy out of the store would gain nothing
+                contentStore = new ContentStore(cacheDir, cacheSize,
+                    (copyStrategy == CopyStrategy.COPY) ? CopyStrategy.REFLINK_OR_COPY : copyStrategy);
+            }
+
+            // Clean up after earlier builds that did not complete
+            BackgroundDeleter.discardLeftovers(bundleDirectory);
+            BackgroundDeleter.discardLeftovers(stagingDirectory);
+
             // Create directory structure
-            File rootDirectory = new File(outputDirectory, name + ".app");
-            delete(rootDirectory);
-            rootDirectory.mkdir();
+            File manifestFile = new File(outputDirectory, "." + name + ".app.manifest");
+
+            if (archive != null) {
+                // Stream the bundle into the archive; the staging directory
+                // only serves as the root of bundle paths and is not created
+                rootDirectory = stagingDirectory;
+                previousManifest = null;
+                manifest = null;
+
+                BackgroundDeleter.discard(rootDirectory);
+
+                archiveOutputStream = new BufferedOutputStream(Files.newOutputStream(archiveTempFile.toPath()),
+                    BUFFER_SIZE);
+                bundleArchive = ArchiveFormat.forFile(archive).newArchive(archiveOutputStream, archiveLevel,
+                    (copyThreads > 0) ? copyThreads : Runtime.getRuntime().availableProcessors());
+            } else if (incremental) {
+                // Update the existing bundle in place
+                rootDirectory = bundleDirectory;
+                previousManifest = BundleManifest.load(manifestFile);
+                manifest = new BundleManifest();
+
+                // Drop the manifest until this build completes, so that an
+                // interrupted build is followed by a full rebuild
+                Files.deleteIfExists(manifestFile.toPath());
+
+                if (previousManifest.isEmpty()) {
+                    BackgroundDeleter.discard(rootDirectory);
+                }
+            } else {
+                // Assemble the bundle next to the existing one, which is only
+                // replaced once the new bundle is complete
+                rootDirectory = stagingDirectory;
+                previousManifest = null;
+                manifest = null;
+
+                BackgroundDeleter.discard(rootDirectory);
+                Files.deleteIfExists(manifestFile.toPath());
+            }
+
+            createDirectories(rootDirectory);
 
             File contentsDirectory = new File(rootDirectory, "Contents");
-            contentsDirectory.mkdir();
+            createDirectories(contentsDirectory);
 
             File macOSDirectory = new File(contentsDirectory, "MacOS");
-            macOSDirectory.mkdir();
+            createDirectories(macOSDirectory);
 
             File javaDirectory = new File(contentsDirectory, "Java");
-            javaDirectory.mkdir();
+            createDirectories(javaDirectory);
 
             File plugInsDirectory = new File(contentsDirectory, "PlugIns");
-            plugInsDirectory.mkdir();
+            createDirectories(plugInsDirectory);
 
             File resourcesDirectory = new File(contentsDirectory, "Resources");
-            resourcesDirectory.mkdir();
-
-            // Generate Info.plist
-            File infoPlistFile = new File(contentsDirectory, "Info.plist");
-            infoPlistFile.createNewFile();
-            writeInfoPlist(infoPlistFile);
+            createDirectories(resourcesDirectory);
 
             // Generate PkgInfo
+            startPhase("pkginfo");
             File pkgInfoFile = new File(contentsDirectory, "PkgInfo");
-            pkgInfoFile.createNewFile();
             writePkgInfo(pkgInfoFile);
 
             // Copy executable to MacOS folder
+            startPhase("launcher");
             File executableFile = new File(macOSDirectory, executableName);
             copy(getClass().getResource(EXECUTABLE_NAME), executableFile);
 
             executableFile.setExecutable(true, false);
 
             // Copy localized resources to Resources folder
+            startPhase("resources");
             copyResources(resourcesDirectory);
             
             // Copy runtime to PlugIns folder
+            startPhase("runtime");
             copyRuntime(plugInsDirectory);
 
             // Copy class path entries to Java folder
+            startPhase("classpath");
             copyClassPathEntries(javaDirectory);
 
             // Copy class path ref entries to Java folder
+            startPhase("classpathref");
             copyClassPathRefEntries(javaDirectory);            
 
             // Copy library path entries to MacOS folder
+            startPhase("libraries");
             copyLibraryPathEntries(macOSDirectory);
 
+            // Link the runtime once the class path is known
+            if (modularRuntime != null) {
+                startPhase("jlink");
+                linkRuntime(plugInsDirectory, runtimeImageDirectory);
+            }
+
             // Copy app icon to Resources folder
+            startPhase("icons");
             copyIcon(resourcesDirectory);
 
             // Copy app document icons to Resources folder
@@ -410,399 +802,1270 @@ public class AppBundlerTask extends Task {
                         copyDocumentIcon(ifile,resourcesDirectory); }
                 }
             }
-        } catch (IOException exception) {
-            throw new BuildException(exception);
-        }
-    }
-    
-    private void copyResources(File resourcesDirectory) throws IOException {
-        // Unzip res.zip into resources directory
-        InputStream inputStream = getClass().getResourceAsStream("res.zip");
-        ZipInputStream zipInputStream = new ZipInputStream(inputStream);
-
-        try {
-            ZipEntry zipEntry = zipInputStream.getNextEntry();
-            while (zipEntry != null) {
-                File file = new File(resourcesDirectory, zipEntry.getName());
-
-                if (zipEntry.isDirectory()) {
-                    file.mkdir();
-                } else {
-                    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
 
-                    try {
-                        int b = zipInputStream.read();
-                        while (b != -1) {
-                            outputStream.write(b);
-                            b = zipInputStream.read();
-                        }
+            // Wait for outstanding copies
+            copyEngine.await();
 
-                        outputStream.flush();
-                    } finally {
-                        outputStream.close();
-                    }
+            // Rewrite the class path jars once their order is known
+            if (!slimmedJars.isEmpty()) {
+                startPhase("slim");
+                slimJars(javaDirectory);
+                copyEngine.await();
+            }
 
-                }
+            // Link duplicates to their originals, which are now in place
+            if (!deduplicator.getLinks().isEmpty()) {
+                linkDuplicates();
+                copyEngine.await();
+            }
 
-                zipEntry = zipInputStream.getNextEntry();
+            if (deduplicator.getDuplicateCount() > 0) {
+                System.out.println("Found " + deduplicator.getDuplicateCount() + " duplicate files ("
+                    + deduplicator.getDuplicateSize() + " bytes)");
             }
-        } finally {
-            zipInputStream.close();
-        }
-    }
 
-    private void copyRuntime(File plugInsDirectory) throws IOException {
-        if (runtime != null) {
-            File runtimeHomeDirectory = runtime.getDir();
-            File runtimeContentsDirectory = runtimeHomeDirectory.getParentFile();
-            File runtimeDirectory = runtimeContentsDirectory.getParentFile();
+            // Merge the class path into a single jar, if it has any jars
+            if (mergeClassPath && !mergedJars.isEmpty()) {
+                startPhase("merge");
+                mergeClassPath(javaDirectory);
+                copyEngine.await();
+            }
 
-            // Create root plug-in directory
-            File pluginDirectory = new File(plugInsDirectory, runtimeDirectory.getName());
-            pluginDirectory.mkdir();
+            // Remove unreachable classes from the runtime class libraries
+            if (!runtimeJars.isEmpty()) {
+                startPhase("prune");
+                pruneRuntime(javaDirectory);
+                copyEngine.await();
+            }
 
-            // Create Contents directory
-            File pluginContentsDirectory = new File(pluginDirectory, runtimeContentsDirectory.getName());
-            pluginContentsDirectory.mkdir();
+            // Generate the startup class list
+            if (classList) {
+                startPhase("classlist");
+                writeClassList(javaDirectory, plugInsDirectory);
+            }
 
-            // Copy MacOS directory
-            File runtimeMacOSDirectory = new File(runtimeContentsDirectory, "MacOS");
-            copy(runtimeMacOSDirectory, new File(pluginContentsDirectory, runtimeMacOSDirectory.getName()));
+            // Order the class path by startup use
+            if (optimizeClassPath) {
+                startPhase("classorder");
+                optimizeClassPath(javaDirectory);
+            }
 
-            // Copy Info.plist file
-            File runtimeInfoPlistFile = new File(runtimeContentsDirectory, "Info.plist");
-            copy(runtimeInfoPlistFile, new File(pluginContentsDirectory, runtimeInfoPlistFile.getName()));
+            // Generate Info.plist once the contents of the Java folder are known
+            startPhase("plist");
+            File infoPlistFile = new File(contentsDirectory, "Info.plist");
+            writeInfoPlist(infoPlistFile);
 
-            // Copy included contents of Home directory
-            File pluginHomeDirectory = new File(pluginContentsDirectory, runtimeHomeDirectory.getName());
+            startPhase("finish");
+            if (integrityManifest != null) {
+                // Written last, once the hashes of all other files are known
+                copyEngine.await();
+                write(integrityManifest.toByteArray(), new File(rootDirectory, IntegrityManifest.PATH),
+                    "integrity manifest");
+            }
 
-            DirectoryScanner directoryScanner = runtime.getDirectoryScanner(getProject());
-            String[] includedFiles = directoryScanner.getIncludedFiles();
+            if (contentStore != null) {
+                contentStore.close();
+            }
 
-            for (String includedFile : includedFiles) {
-                File source = new File(runtimeHomeDirectory, includedFile);
-                File destination = new File(pluginHomeDirectory, includedFile);
-                copy(source, destination);
+            if (bundleArchive != null) {
+                // Replace the previous archive once the new one is complete
+                bundleArchive.finish();
+                archiveOutputStream.close();
+                Files.move(archiveTempFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } else if (incremental) {
+                // Remove outputs of the previous build that were not written again
+                deleteStaleFiles();
+                manifest.save(manifestFile);
+            } else {
+                // Move the new bundle into place and delete the old one in the background
+                BackgroundDeleter.discard(bundleDirectory);
+                Files.move(stagingDirectory.toPath(), bundleDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
             }
-        }
-    }
 
-    private void copyClassPathRefEntries(File javaDirectory) throws IOException {
-        if (classPathRef != null) {
-            org.apache.tools.ant.types.Path classpath = 
-                    (org.apache.tools.ant.types.Path) classPathRef.getReferencedObject(getProject());
-            
-            Iterator<FileResource> iter = (Iterator<FileResource>)(Object)classpath.iterator();
-            while(iter.hasNext()) {
-                FileResource resource = iter.next();
-                File source = resource.getFile();
-                File destination = new File(javaDirectory, source.getName());
-                copy(source, destination);
+            // Create the variants from the completed bundle
+            for (Variant variant : variants) {
+                startPhase("variant-" + variant.getName());
+                createVariant(bundleDirectory, variant);
             }
-        }
-    }
 
-    private void copyClassPathEntries(File javaDirectory) throws IOException {
-        copyFilesToDirectory(classPath, javaDirectory);
-    }
+            if (metrics != null) {
+                metrics.endPhase();
+                reportMetrics();
+            }
 
-    private void copyLibraryPathEntries(File macOSDirectory) throws IOException {
-        copyFilesToDirectory(libraryPath, macOSDirectory);
-    }
+            complete = true;
+        } catch (IOException exception) {
+            throw new BuildException(exception);
+        } finally {
+            // Close the pipeline first, so that no operation waits on it
+            closeCopyPipeline();
+            copyEngine.close();
+            copyEngine = null;
+
+            if (bundleArchive != null) {
+                bundleArchive.close();
+                bundleArchive = null;
+
+                try {
+                    archiveOutputStream.close();
+                    Files.deleteIfExists(archiveTempFile.toPath());
+                } catch (IOException exception) {
+                    System.err.println("Unable to delete " + archiveTempFile + ": " + exception);
+                }
+            }
 
-    private void copyFilesToDirectory(ArrayList<FileSet> paths, File directory) throws IOException {
-        for (FileSet fileSet : paths) {
-            File sourceDirectory = fileSet.getDir();
-            DirectoryScanner directoryScanner = fileSet.getDirectoryScanner(getProject());
-            String[] includedFiles = directoryScanner.getIncludedFiles();
+            if (metrics != null) {
+                metrics.endPhase();
+                metrics = null;
+            }
 
-            for (String includedFile : includedFiles) {
-                File source = new File(sourceDirectory, includedFile);
-                File destination = new File(directory, new File(includedFile).getName());
-                copy(source, destination);
+            if (modularRuntime != null) {
+                try {
+                    BackgroundDeleter.discard(runtimeImageDirectory);
+                } catch (IOException exception) {
+                    System.err.println("Unable to delete " + runtimeImageDirectory + ": " + exception);
+                }
             }
-        }
-    }
 
-    private void copyIcon(File resourcesDirectory) throws IOException {
-        if (icon == null) {
-            copy(getClass().getResource(DEFAULT_ICON_NAME), new File(resourcesDirectory, DEFAULT_ICON_NAME));
-        } else {
-            copy(icon, new File(resourcesDirectory, icon.getName()));
+            if (!complete && !incremental) {
+                try {
+                    BackgroundDeleter.discard(stagingDirectory);
+                } catch (IOException exception) {
+                    System.err.println("Unable to delete " + stagingDirectory + ": " + exception);
+                }
+            }
         }
     }
+    
+    /**
+     * Creates a variant of the given bundle. Everything but the icon, the
+     * resources of the variant and <code>Info.plist</code> is cloned or
+     * linked from the bundle, so shared inputs are only read once.
+     */
+    private void createVariant(File bundleDirectory, Variant variant) throws IOException {
+        System.out.println("Creating variant: " + variant.getName());
+
+        File variantDirectory = new File(outputDirectory, variant.getName() + ".app");
+        File stagingDirectory = new File(outputDirectory, "." + variant.getName() + ".app.staging");
+
+        BackgroundDeleter.discardLeftovers(variantDirectory);
+        BackgroundDeleter.discardLeftovers(stagingDirectory);
+        BackgroundDeleter.discard(stagingDirectory);
+
+        // A variant is always created in full
+        Files.deleteIfExists(new File(outputDirectory, "." + variant.getName() + ".app.manifest").toPath());
+
+        String bundleName = name;
+        String bundleDisplayName = displayName;
+        String bundleIdentifier = identifier;
+        File bundleIcon = icon;
+        ArrayList<Option> bundleOptions = options;
+        List<PlistEntry> bundlePlistEntries = customPlistEntries;
+        File bundleRootDirectory = rootDirectory;
+        BundleManifest bundleManifest = manifest;
+        IntegrityManifest bundleIntegrityManifest = integrityManifest;
 
-    private void copyDocumentIcon(File ifile, File resourcesDirectory) throws IOException {
-        if (icon != null) {
-            copy(ifile, new File(resourcesDirectory, ifile.getName()));
-        }
-    }
+        try {
+            name = variant.getName();
+            displayName = (variant.getDisplayName() == null) ? bundleDisplayName : variant.getDisplayName();
+            identifier = (variant.getIdentifier() == null) ? bundleIdentifier : variant.getIdentifier();
+            icon = (variant.getIcon() == null) ? bundleIcon : variant.getIcon();
+
+            // Options and entries of the variant replace those of the bundle with the same name or key
+            options = new ArrayList<>();
+            for (Option option : bundleOptions) {
+                if (option.getName() == null || !containsOption(variant.getOptions(), option.getName())) {
+                    options.add(option);
+                }
+            }
 
-    private void writeOptionalProperty(XMLStreamWriter xout, String property, String value) throws XMLStreamException {
-        if (value != null) {
-            writeProperty(xout, property, value);
-        }
-    }
+            options.addAll(variant.getOptions());
 
-    private void writeInfoPlist(File file) throws IOException {
-        Writer out = new BufferedWriter(new FileWriter(file));
-        XMLOutputFactory output = XMLOutputFactory.newInstance();
+            customPlistEntries = new ArrayList<>();
+            for (PlistEntry entry : bundlePlistEntries) {
+                if (!containsPlistEntry(variant.getPlistEntries(), entry.getKey())) {
+                    customPlistEntries.add(entry);
+                }
+            }
 
-        try {
-            XMLStreamWriter xout = new IndentingXMLStreamWriter(output.createXMLStreamWriter(out));
+            customPlistEntries.addAll(variant.getPlistEntries());
 
-            // Write XML declaration
-            xout.writeStartDocument();
+            rootDirectory = stagingDirectory;
+            manifest = null;
 
-            // Write plist DTD declaration
-            xout.writeDTD(PLIST_DTD);
+            Set<File> excludedFiles = new HashSet<>();
+            File contentsDirectory = new File(bundleDirectory, "Contents");
+            excludedFiles.add(new File(contentsDirectory, "Info.plist"));
+            excludedFiles.add(new File(bundleDirectory, IntegrityManifest.PATH));
 
-            // Begin root element
-            xout.writeStartElement(PLIST_TAG);
-            xout.writeAttribute(PLIST_VERSION_ATTRIBUTE, "1.0");
+            if (variant.getIcon() != null) {
+                excludedFiles.add(new File(new File(contentsDirectory, "Resources"),
+                    (bundleIcon == null) ? DEFAULT_ICON_NAME : bundleIcon.getName()));
+            }
 
-            // Begin root dictionary
-            xout.writeStartElement(DICT_TAG);
+            // Resources of the variant replace those of the bundle with the same path
+            final Map<String, File> variantResources = new LinkedHashMap<>();
+            for (FileSet fileSet : variant.getResources()) {
+                final File sourceDirectory = fileSet.getDir(getProject());
 
-            // Write bundle properties
-            writeProperty(xout, "CFBundleDevelopmentRegion", "English");
-            writeProperty(xout, "CFBundleExecutable", executableName);
-            writeProperty(xout, "CFBundleIconFile", (icon == null) ? DEFAULT_ICON_NAME : icon.getName());
-            writeProperty(xout, "CFBundleIdentifier", identifier);
-            writeProperty(xout, "CFBundleDisplayName", displayName);
-            writeProperty(xout, "CFBundleInfoDictionaryVersion", "6.0");
-            writeProperty(xout, "CFBundleName", name);
-            writeProperty(xout, "CFBundlePackageType", OS_TYPE_CODE);
-            writeProperty(xout, "CFBundleShortVersionString", shortVersion);
-            writeProperty(xout, "CFBundleVersion", version);
-            writeProperty(xout, "CFBundleSignature", signature);
-            writeProperty(xout, "NSHumanReadableCopyright", copyright);
+                fileSetScanner.scan(fileSet, includedFile -> {
+                    variantResources.put(includedFile, new File(sourceDirectory, includedFile));
+                    excludedFiles.add(new File(new File(contentsDirectory, "Resources"), includedFile));
+                });
+            }
 
-            writeOptionalProperty(xout, "LSMinimumSystemVersion", minimumSystemVersion);
-            writeOptionalProperty(xout, "LSApplicationCategoryType", applicationCategory);
+            if (bundleIntegrityManifest != null) {
+                // Replicated files keep their hashes
+                integrityManifest = bundleIntegrityManifest.copy();
 
-            if (hideDockIcon) {
-                writeKey(xout, "LSUIElement");
-                writeBoolean(xout, true); 
-            }
-            if (highResolutionCapable) {
-                writeKey(xout, "NSHighResolutionCapable");
-                writeBoolean(xout, true); 
+                for (File excludedFile : excludedFiles) {
+                    integrityManifest.remove(bundleDirectory.toPath().relativize(excludedFile.toPath()).toString()
+                        .replace(File.separatorChar, '/'));
+                }
             }
 
-            if (includeJavaRootInClasspath) {
-                writeKey(xout, "IncludeJavaRoot");
-                writeBoolean(xout, true);
-            }
+            // Files of the bundle are never modified in place, so where they
+            // cannot be cloned, the variant links to them instead of copying
+            CopyStrategy variantStrategy = (copyStrategy == CopyStrategy.COPY)
+                ? CopyStrategy.AUTO : copyStrategy;
+            replicate(bundleDirectory, stagingDirectory, excludedFiles, variantStrategy);
 
-            if (allowHttp) {
-                writeKey(xout, "NSAppTransportSecurity");
-                xout.writeStartElement(DICT_TAG);
-                writeKey(xout, "NSAllowsArbitraryLoads");
-                writeBoolean(xout, true);
-                xout.writeEndElement();
+            File variantContentsDirectory = new File(stagingDirectory, "Contents");
+            if (variant.getIcon() != null) {
+                copyIcon(new File(variantContentsDirectory, "Resources"));
             }
 
-            if (supportsAutomaticGraphicsSwitching) {
-                writeKey(xout, "NSSupportsAutomaticGraphicsSwitching");
-                writeBoolean(xout, true); 
+            for (Map.Entry<String, File> resource : variantResources.entrySet()) {
+                copy(resource.getValue(), new File(new File(variantContentsDirectory, "Resources"), resource.getKey()));
             }
-            if (registeredProtocols.size() > 0) {
-                writeKey(xout, "CFBundleURLTypes");
-                xout.writeStartElement(ARRAY_TAG);
-                xout.writeStartElement(DICT_TAG);
 
-                writeProperty(xout, "CFBundleURLName", identifier);
+            copyEngine.await();
 
-                writeKey(xout, "CFBundleURLSchemes");
-                xout.writeStartElement(ARRAY_TAG);
-                for(String scheme:registeredProtocols) {
-                    writeString(xout, scheme);
-                }
+            writeInfoPlist(new File(variantContentsDirectory, "Info.plist"));
 
-                xout.writeEndElement();
-                xout.writeEndElement();
-                xout.writeEndElement();
+            if (integrityManifest != null) {
+                write(integrityManifest.toByteArray(), new File(stagingDirectory, IntegrityManifest.PATH),
+                    "integrity manifest");
             }
 
-            // Write runtime
-            writeOptionalProperty(xout, "JVMRuntime", runtime.getDir().getParentFile().getParentFile().getName());
-            writeOptionalProperty(xout, "JVMRunPrivileged", privileged);
-            writeOptionalProperty(xout, "WorkingDirectory", workingDirectory);
-
-            // Write main class name
-            writeProperty(xout, "JVMMainClassName", mainClassName);
-
-            // Write whether launcher be verbose with debug msgs
-            if (isDebug) {
-                writeKey(xout, "JVMDebug");
-                writeBoolean(xout, isDebug);
+            BackgroundDeleter.discard(variantDirectory);
+            Files.move(stagingDirectory.toPath(), variantDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException exception) {
+            try {
+                BackgroundDeleter.discard(stagingDirectory);
+            } catch (IOException discardException) {
+                System.err.println("Unable to delete " + stagingDirectory + ": " + discardException);
             }
 
-            // Write CFBundleDocument entries
-            writeKey(xout, "CFBundleDocumentTypes");
-            
-            xout.writeStartElement(ARRAY_TAG);
+            throw exception;
+        } finally {
+            name = bundleName;
+            displayName = bundleDisplayName;
+            identifier = bundleIdentifier;
+            icon = bundleIcon;
+            options = bundleOptions;
+            customPlistEntries = bundlePlistEntries;
+            rootDirectory = bundleRootDirectory;
+            manifest = bundleManifest;
+            integrityManifest = bundleIntegrityManifest;
+        }
+    }
 
-            for(BundleDocument bundleDocument: bundleDocuments) {
-                xout.writeStartElement(DICT_TAG);
+    private void replicate(final File source, final File destination, Set<File> excludedFiles,
+        final CopyStrategy strategy) throws IOException {
+        if (excludedFiles.contains(source)) {
+            return;
+        }
 
-                writeKey(xout, "CFBundleTypeExtensions");
-                xout.writeStartElement(ARRAY_TAG);
-                for(String extension : bundleDocument.getExtensions()) {
-                    writeString(xout, extension);
+        if (Files.isDirectory(source.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            // Clone whole directories, e.g. the runtime, with a single process
+            if (!containsAny(source, excludedFiles) && strategy.cloneTree(source.toPath(), destination.toPath())) {
+                if (BuildMetrics.getActivePhase() != null) {
+                    recordFiles(destination.toPath());
                 }
-                xout.writeEndElement();
 
-                if (bundleDocument.hasIcon()) {
-                    writeKey(xout, "CFBundleTypeIconFile");
+                return;
+            }
 
-                    File ifile = bundleDocument.getIconFile();
+            copyEngine.createDirectories(destination);
 
-                    if (ifile != null) {
-                        writeString(xout, ifile.getName());
-                    } else {
-                        writeString(xout, bundleDocument.getIcon());
-                    }
-                }
+            for (String file : source.list()) {
+                replicate(new File(source, file), new File(destination, file), excludedFiles, strategy);
+            }
+        } else {
+            copyEngine.submit(destination, () -> {
+                // Code signing rewrites Mach-O files in place, so unless links
+                // were asked for, they are not shared between the bundles
+                CopyStrategy fileStrategy = (strategy != copyStrategy
+                    && BundleVerifier.isMachO(source.toPath())) ? CopyStrategy.REFLINK_OR_COPY : strategy;
+
+                fileStrategy.copy(source.toPath(), destination.toPath());
+                BuildMetrics.recordFile(destination.toPath());
+            });
+        }
+    }
 
-                writeProperty(xout, "CFBundleTypeName", bundleDocument.getName());
-                writeProperty(xout, "CFBundleTypeRole", bundleDocument.getRole());
-                writeProperty(xout, "LSTypeIsPackage", Boolean.toString(bundleDocument.isPackage()));
+    private static boolean containsAny(File directory, Set<File> files) {
+        String prefix = directory.getPath() + File.separator;
 
-                xout.writeEndElement();
+        for (File file : files) {
+            if (file.getPath().startsWith(prefix)) {
+                return true;
             }
-            
-            xout.writeEndElement();
+        }
 
-            // Write architectures
-            writeKey(xout, "LSArchitecturePriority");
+        return false;
+    }
 
-            xout.writeStartElement(ARRAY_TAG);
+    private static void recordFiles(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                BuildMetrics.recordFile(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
 
-            for (String architecture : architectures) {
-                writeString(xout, architecture);
+    private static boolean containsOption(List<Option> options, String name) {
+        for (Option option : options) {
+            if (name.equals(option.getName())) {
+                return true;
             }
+        }
 
-            xout.writeEndElement();
+        return false;
+    }
 
-            // Write Environment
-            writeKey(xout, "LSEnvironment");
-            xout.writeStartElement(DICT_TAG);
-            writeKey(xout, "LC_CTYPE");
-            writeString(xout, "UTF-8");
-            xout.writeEndElement();
+    private static boolean containsPlistEntry(List<PlistEntry> entries, String key) {
+        for (PlistEntry entry : entries) {
+            if (key.equals(entry.getKey())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 
-            // Write options
-            writeKey(xout, "JVMOptions");
+    private void startPhase(String name) {
+        if (metrics != null) {
+            metrics.startPhase(name);
+        }
+    }
 
-            xout.writeStartElement(ARRAY_TAG);
+    private void reportMetrics() throws IOException {
+        for (BuildMetrics.Phase phase : metrics.getPhases()) {
+            System.out.println("  " + phase.name + ": " + phase.getMillis() + " ms, " + phase.getFileCount()
+                + " files, " + phase.getByteCount() + " bytes");
+        }
+
+        if (metricsPrefix != null) {
+            metrics.setProperties(getProject(), metricsPrefix);
+        }
+
+        if (metricsFile != null) {
+            metrics.writeReport(metricsFile, name);
+        }
+    }
+
+    /**
+     * Prepares the task to write into the given bundle directory outside of
+     * {@link #execute()}, so that single steps can be measured.
+     */
+    void beginBundle(File rootDirectory) {
+        this.rootDirectory = rootDirectory;
+        manifest = null;
+        previousManifest = null;
+        copyEngine = new CopyEngine(getCopyThreads());
+        copyPipeline = (ioProfile == null) ? null : new CopyPipeline(ioProfile, ioMemory);
+        contentStore = null;
+        fileSetScanner = new FileSetScanner(getProject(), (cacheDir == null) ? null : new File(cacheDir, "scans"));
+        deduplicator = null;
+        integrityManifest = null;
+        runtimeJars.clear();
+        mergedJars.clear();
+        slimmedJars.clear();
+        classPathSources.clear();
+        optimizedJarNames = null;
+        javaFileNames.clear();
+    }
+
+    /**
+     * Waits for the operations started since {@link #beginBundle(File)}.
+     */
+    void endBundle() throws IOException {
+        try {
+            copyEngine.await();
+        } finally {
+            closeCopyPipeline();
+            copyEngine.close();
+            copyEngine = null;
+        }
+    }
 
-            for (Option option : options) {
-                if (option.getName() == null) writeString(xout, option.getValue());
+    /**
+     * Returns the number of files the copy engine works on concurrently.
+     */
+    private int getCopyThreads() {
+        if (copyThreads > 0) {
+            return copyThreads;
+        }
+
+        return (ioProfile == null) ? Runtime.getRuntime().availableProcessors() : ioProfile.getFileCount();
+    }
+
+    private void closeCopyPipeline() {
+        if (copyPipeline != null) {
+            copyPipeline.close();
+            copyPipeline = null;
+        }
+    }
+
+    void copyResources(File resourcesDirectory) throws IOException {
+        // Extract the contents of res.zip into resources directory
+        for (Map.Entry<String, byte[]> resource : getResources().entrySet()) {
+            String resourceName = resource.getKey();
+
+            int i = resourceName.indexOf('/');
+            if (locales != null && i != -1) {
+                String directoryName = resourceName.substring(0, i);
+
+                if (directoryName.endsWith(LOCALIZATION_SUFFIX) && !locales.contains(directoryName)) {
+                    continue;
+                }
             }
 
-            xout.writeEndElement();
+            write(resource.getValue(), new File(resourcesDirectory, resourceName), "res.zip!/" + resourceName);
+        }
+    }
 
-            // Write default options
-            writeKey(xout, "JVMDefaultOptions");
+    private static synchronized Map<String, byte[]> getResources() throws IOException {
+        if (resources == null) {
+            Map<String, byte[]> entries = new LinkedHashMap<>();
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try (ZipInputStream zipInputStream = new ZipInputStream(
+                AppBundlerTask.class.getResourceAsStream("res.zip"))) {
+                ZipEntry zipEntry = zipInputStream.getNextEntry();
+                while (zipEntry != null) {
+                    if (!zipEntry.isDirectory()) {
+                        int size = (int) Math.max(zipEntry.getSize(), 0);
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size);
+
+                        int n;
+                        while ((n = zipInputStream.read(buffer)) != -1) {
+                            outputStream.write(buffer, 0, n);
+                        }
 
-            xout.writeStartElement(DICT_TAG);
+                        entries.put(zipEntry.getName(), outputStream.toByteArray());
+                    }
 
-            for (Option option : options) {
-                if (option.getName() != null) {
-                    writeKey(xout, option.getName());
-                    writeString(xout, option.getValue());
+                    zipEntry = zipInputStream.getNextEntry();
                 }
             }
 
-            xout.writeEndElement();
+            resources = Collections.unmodifiableMap(entries);
+        }
+
+        return resources;
+    }
+
+    void copyRuntime(File plugInsDirectory) throws IOException {
+        if (runtime != null) {
+            File runtimeHomeDirectory = runtime.getDir();
+            File runtimeContentsDirectory = runtimeHomeDirectory.getParentFile();
+            File runtimeDirectory = runtimeContentsDirectory.getParentFile();
+
+            // Create root plug-in directory
+            File pluginDirectory = new File(plugInsDirectory, runtimeDirectory.getName());
+            createDirectories(pluginDirectory);
+
+            // Create Contents directory
+            File pluginContentsDirectory = new File(pluginDirectory, runtimeContentsDirectory.getName());
+            createDirectories(pluginContentsDirectory);
+
+            // Copy MacOS directory
+            File runtimeMacOSDirectory = new File(runtimeContentsDirectory, "MacOS");
+            copy(runtimeMacOSDirectory, new File(pluginContentsDirectory, runtimeMacOSDirectory.getName()));
+
+            // Copy Info.plist file
+            File runtimeInfoPlistFile = new File(runtimeContentsDirectory, "Info.plist");
+            copy(runtimeInfoPlistFile, new File(pluginContentsDirectory, runtimeInfoPlistFile.getName()));
+
+            // Copy included contents of Home directory
+            File pluginHomeDirectory = new File(pluginContentsDirectory, runtimeHomeDirectory.getName());
+
+            // Start copying while the runtime is being scanned
+            fileSetScanner.scan(runtime, includedFile -> {
+                File source = new File(runtimeHomeDirectory, includedFile);
+                File destination = new File(pluginHomeDirectory, includedFile);
+
+                if (pruneRuntime && includedFile.endsWith(JAR_SUFFIX) && !Files.isSymbolicLink(source.toPath())) {
+                    // Written by pruneRuntime() once the class path is in place
+                    runtimeJars.put(source, destination);
+                } else {
+                    copy(source, destination);
+                }
+            });
+        }
+    }
+
+    /**
+     * Links a runtime image with the modules the class path needs and lays
+     * it out in the PlugIns folder like a JDK bundle.
+     */
+    private void linkRuntime(File plugInsDirectory, File imageDirectory) throws IOException {
+        RuntimeLinker runtimeLinker = new RuntimeLinker(modularRuntime);
+        Set<String> modules = runtimeLinker.findModules(classPathSources);
+
+        System.out.println("Linking runtime " + modularRuntime.getName() + " with modules: "
+            + String.join(", ", modules));
 
-            // Write arguments
-            writeKey(xout, "JVMArguments");
+        File pluginContentsDirectory = new File(new File(plugInsDirectory, modularRuntime.getName()), "Contents");
+        File pluginHomeDirectory = new File(pluginContentsDirectory, "Home");
 
-            xout.writeStartElement(ARRAY_TAG);
+        // jlink refuses to write into an existing directory
+        BackgroundDeleter.discard(imageDirectory);
+        runtimeLinker.link(modules, imageDirectory);
 
-            for (String argument : arguments) {
-                writeString(xout, argument);
+        if (bundleArchive == null && manifest == null) {
+            // The staging directory is on the same file system
+            createDirectories(pluginContentsDirectory);
+            Files.move(imageDirectory.toPath(), pluginHomeDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            if (integrityManifest != null) {
+                recordIntegrity(pluginHomeDirectory);
+            }
+        } else {
+            copy(imageDirectory, pluginHomeDirectory);
+        }
+    }
+
+    private void pruneRuntime(File javaDirectory) throws IOException {
+        List<File> applicationJars = new ArrayList<>();
+
+        File[] files = javaDirectory.listFiles();
+        Arrays.sort(files);
+
+        for (File file : files) {
+            if (file.getName().endsWith(JAR_SUFFIX)) {
+                applicationJars.add(file);
             }
+        }
 
-            xout.writeEndElement();
+        RuntimePruner runtimePruner = new RuntimePruner(applicationJars, new ArrayList<>(runtimeJars.keySet()),
+            mainClassName, keepRules);
+        final Set<String> reachableClasses = runtimePruner.findReachableClasses();
 
-            writeCustomEntries(xout, customPlistEntries);
+        for (Map.Entry<File, File> runtimeJar : runtimeJars.entrySet()) {
+            final File source = runtimeJar.getKey();
+            final File destination = runtimeJar.getValue();
 
-            // End root dictionary
-            xout.writeEndElement();
-            // End root element
-            xout.writeEndElement();
-            // Close document
-            xout.writeEndDocument();
+            copyEngine.submit(destination, () -> {
+                String[] summary = new String[1];
 
-            out.flush();
-        } catch (XMLStreamException exception) {
-            throw new IOException(exception);
-        } finally {
-            out.close();
+                destination.getParentFile().mkdirs();
+                long size = write(destination, source.getAbsolutePath(),
+                    out -> summary[0] = RuntimePruner.prune(source, reachableClasses, out));
+
+                System.out.println("Pruned " + source.getName() + ": " + summary[0] + ", "
+                    + source.length() + " -> " + size + " bytes");
+            });
+        }
+    }
+
+    private void writeClassList(File javaDirectory, File plugInsDirectory) throws IOException {
+        // Runtime classes are loaded by the boot class loader, so they take precedence
+        List<File> jars = new ArrayList<>();
+        findJars(plugInsDirectory, jars);
+        findJars(javaDirectory, jars);
+
+        List<String> classNames;
+        try (ClassIndex classIndex = new ClassIndex(jars)) {
+            classNames = ClassLoadOrder.compute(classIndex, mainClassName);
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (String className : classNames) {
+            content.append(className).append('\n');
+        }
+
+        write(content.toString().getBytes(StandardCharsets.UTF_8), new File(javaDirectory, CLASS_LIST_NAME),
+            "class list");
+
+        System.out.println("Wrote class list with " + classNames.size() + " classes");
+
+        if (classListReference != null) {
+            System.out.println("Class list compared to " + classListReference.getName() + ": "
+                + ClassLoadLog.compare(classNames, ClassLoadLog.read(classListReference)));
+        }
+    }
+
+    private static void findJars(File directory, List<File> jars) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findJars(file, jars);
+            } else if (file.getName().endsWith(JAR_SUFFIX)) {
+                jars.add(file);
+            }
+        }
+    }
+
+    private void copyClassPathRefEntries(File javaDirectory) throws IOException {
+        if (classPathRef != null) {
+            org.apache.tools.ant.types.Path classpath = 
+                    (org.apache.tools.ant.types.Path) classPathRef.getReferencedObject(getProject());
+            
+            Iterator<FileResource> iter = (Iterator<FileResource>)(Object)classpath.iterator();
+            while(iter.hasNext()) {
+                FileResource resource = iter.next();
+                copyClassPathEntry(resource.getFile(), javaDirectory);
+            }
+        }
+    }
+
+    private void copyClassPathEntries(final File javaDirectory) throws IOException {
+        for (FileSet fileSet : classPath) {
+            final File sourceDirectory = fileSet.getDir(getProject());
+
+            fileSetScanner.scan(fileSet,
+                includedFile -> copyClassPathEntry(new File(sourceDirectory, includedFile), javaDirectory));
+        }
+    }
+
+    private void copyClassPathEntry(File source, File javaDirectory) throws IOException {
+        classPathSources.add(source);
+
+        if (mergeClassPath && source.getName().endsWith(JAR_SUFFIX)) {
+            // Written by mergeClassPath() once all entries are known
+            mergedJars.add(source);
+            javaFileNames.add(name + JAR_SUFFIX);
+            return;
+        }
+
+        if (deduplicator != null) {
+            switch (deduplicator.add(source, new File(javaDirectory, source.getName()), true)) {
+                case OMIT:
+                    return;
+
+                case DONE:
+                    javaFileNames.add(source.getName());
+                    return;
+
+                default:
+                    break;
+            }
+        }
+
+        javaFileNames.add(source.getName());
+
+        if (slimJars && source.getName().endsWith(JAR_SUFFIX) && source.isFile()) {
+            // Written by slimJars() once the class path order is known
+            slimmedJars.put(source.getName(), source);
+            return;
+        }
+
+        if (jarCompression != JarCompression.KEEP && source.getName().endsWith(JAR_SUFFIX)
+            && source.isFile()) {
+            final File destination = new File(javaDirectory, source.getName());
+
+            copyEngine.submit(destination, () -> {
+                long size = write(destination, source.getAbsolutePath(), out -> jarCompression.rewrite(source, out));
+
+                System.out.println("Recompressed " + source.getName() + " (" + jarCompression.getValue() + "): "
+                    + source.length() + " -> " + size + " bytes");
+            });
+        } else {
+            copy(source, new File(javaDirectory, source.getName()));
+        }
+    }
+
+    /**
+     * Returns true if the class path is written to <code>Info.plist</code>.
+     * It must be whenever the bundle relies on its order, e.g. once shadowed
+     * classes are removed, as the launcher would otherwise use the order in
+     * which the file system lists the Java folder.
+     */
+    private boolean isClassPathExplicit() {
+        return explicitClassPath || optimizeClassPath || slimJars;
+    }
+
+    private void slimJars(File javaDirectory) throws IOException {
+        AttributeStripper attributeStripper = stripAttributes.isEmpty() ? null
+            : new AttributeStripper(stripAttributes);
+        final JarSlimmer jarSlimmer = new JarSlimmer(attributeStripper, jarCompression);
+
+        for (String path : getClassPath()) {
+            final String fileName = path.substring(path.lastIndexOf('/') + 1);
+            final File source = slimmedJars.get(fileName);
+
+            if (source == null) {
+                continue;
+            }
+
+            final Set<String> shadowedEntryNames = jarSlimmer.addJar(source);
+            final File destination = new File(javaDirectory, fileName);
+
+            copyEngine.submit(destination, () -> {
+                JarSlimmer.Report report = new JarSlimmer.Report();
+                long size = write(destination, source.getAbsolutePath(),
+                    out -> jarSlimmer.slim(source, shadowedEntryNames, report, out));
+
+                System.out.println("Slimmed " + fileName + ": " + source.length() + " -> " + size + " bytes ("
+                    + report + ")");
+            });
+        }
+    }
+
+    private void mergeClassPath(File javaDirectory) throws IOException {
+        final File mergedJar = new File(javaDirectory, name + JAR_SUFFIX);
+        final ClassPathMerger classPathMerger = new ClassPathMerger(new ArrayList<>(mergedJars), mergeRules,
+            jarCompression);
+
+        copyEngine.submit(mergedJar, () -> write(mergedJar, "merged class path",
+            out -> classPathMerger.merge(out, mergedJar.getName())));
+    }
+
+    /**
+     * Returns the class path the launcher would build from the Java folder,
+     * i.e. the Classes folder followed by jars and native libraries, with the
+     * files placed in the Java folder in class path order.
+     */
+    private List<String> getClassPath() {
+        List<String> orderedFileNames = getOrderedFileNames();
+
+        if (optimizedJarNames != null) {
+            // Jars in startup order, followed by the other files
+            List<String> fileNames = new ArrayList<>(optimizedJarNames);
+            for (String fileName : orderedFileNames) {
+                if (!fileName.endsWith(JAR_SUFFIX)) {
+                    fileNames.add(fileName);
+                }
+            }
+
+            orderedFileNames = fileNames;
+        }
+
+        List<String> classPath = new ArrayList<>();
+        classPath.add(JAVA_PATH + "/Classes");
+
+        if (includeJavaRootInClasspath) {
+            classPath.add(JAVA_PATH);
+        }
+
+        for (String fileName : orderedFileNames) {
+            classPath.add(JAVA_PATH + "/" + fileName);
+        }
+
+        return classPath;
+    }
+
+    /**
+     * Returns the jars and native libraries of the Java folder in the order
+     * given by the class path order patterns.
+     */
+    private List<String> getOrderedFileNames() {
+        List<String> fileNames = new ArrayList<>();
+        for (String fileName : javaFileNames) {
+            if (fileName.endsWith(JAR_SUFFIX)) {
+                fileNames.add(fileName);
+            }
+        }
+
+        for (String fileName : javaFileNames) {
+            if (fileName.endsWith(JNILIB_SUFFIX)) {
+                fileNames.add(fileName);
+            }
+        }
+
+        // Files matching an ordering pattern come first, in pattern order
+        List<String> orderedFileNames = new ArrayList<>();
+        for (Pattern pattern : classPathOrder) {
+            for (Iterator<String> iterator = fileNames.iterator(); iterator.hasNext();) {
+                String fileName = iterator.next();
+
+                if (pattern.matcher(fileName).matches()) {
+                    orderedFileNames.add(fileName);
+                    iterator.remove();
+                }
+            }
+        }
+
+        orderedFileNames.addAll(fileNames);
+
+        return orderedFileNames;
+    }
+
+    /**
+     * Orders the class path jars by how early they are needed at startup,
+     * keeping jars that shadow entries of other jars before them.
+     */
+    private void optimizeClassPath(File javaDirectory) throws IOException {
+        // Archived jars are analyzed in their source form
+        Map<String, File> sources = new HashMap<>();
+        for (File source : classPathSources) {
+            sources.put(source.getName(), source);
+        }
+
+        List<File> jars = new ArrayList<>();
+        for (String fileName : getOrderedFileNames()) {
+            if (fileName.endsWith(JAR_SUFFIX)) {
+                File jar = (bundleArchive == null) ? new File(javaDirectory, fileName) : sources.get(fileName);
+
+                if (jar == null || !jar.isFile()) {
+                    System.out.println("Class path not optimized: " + fileName + " cannot be analyzed");
+                    return;
+                }
+
+                jars.add(jar);
+            }
+        }
+
+        if (jars.size() < 2) {
+            return;
+        }
+
+        // Without an explicit class path, the launcher listed the jars in
+        // directory order, so which jar served a shared entry was not defined
+        ClassPathOptimizer optimizer = new ClassPathOptimizer(jars, explicitClassPath);
+        List<File> order = optimizer.optimize(mainClassName,
+            (classLoadLog == null) ? null : ClassLoadLog.read(classLoadLog));
+
+        for (ClassPathOptimizer.Conflict conflict : optimizer.getConflicts()) {
+            System.out.println(conflict);
+        }
+
+        optimizedJarNames = new ArrayList<>();
+        for (File jar : order) {
+            optimizedJarNames.add(jar.getName());
+        }
+
+        System.out.println("Optimized class path: " + optimizer.getReferencedJarCount() + " of " + jars.size()
+            + " jars used at startup, " + optimizer.getConflicts().size() + " orderings "
+            + (explicitClassPath ? "kept" : "fixed") + " for shadowing");
+    }
+
+    private void copyLibraryPathEntries(File macOSDirectory) throws IOException {
+        copyFilesToDirectory(libraryPath, macOSDirectory);
+    }
+
+    private void copyFilesToDirectory(ArrayList<FileSet> paths, final File directory) throws IOException {
+        for (FileSet fileSet : paths) {
+            final File sourceDirectory = fileSet.getDir(getProject());
+
+            fileSetScanner.scan(fileSet, includedFile -> {
+                File source = new File(sourceDirectory, includedFile);
+                File destination = new File(directory, source.getName());
+
+                if (deduplicator == null
+                    || deduplicator.add(source, destination, false) == Deduplicator.Result.WRITE) {
+                    copy(source, destination);
+                }
+            });
         }
     }
 
-    private void writeCustomEntries(XMLStreamWriter xout, List<PlistEntry> entries) throws XMLStreamException {
+    /**
+     * Replaces duplicate files with hard links to the copies written first.
+     * The links are recorded in the manifest like copies of their sources.
+     */
+    private void linkDuplicates() throws IOException {
+        for (Map.Entry<Deduplicator.Placement, Deduplicator.Placement> link
+            : deduplicator.getLinks().entrySet()) {
+            final Deduplicator.Placement duplicate = link.getKey();
+            final Deduplicator.Placement original = link.getValue();
+
+            if (bundleArchive != null || !deduplicator.isPlaced(original)) {
+                // Archives store the content again, as does a replaced original
+                copyEngine.submit(duplicate.destination, () -> copyFile(duplicate.source, duplicate.destination));
+                continue;
+            }
+
+            final String hash = deduplicator.getHash(duplicate.source);
+
+            copyEngine.submit(duplicate.destination, () -> {
+                Path destinationPath = duplicate.destination.toPath();
+
+                if (manifest != null) {
+                    String path = getBundlePath(duplicate.destination);
+                    manifest.put(path, new BundleManifest.Entry(duplicate.source.getAbsolutePath(), duplicate.size,
+                        Files.getLastModifiedTime(duplicate.source.toPath()).toMillis(), hash));
+                }
+
+                Files.deleteIfExists(destinationPath);
+                CopyStrategy.HARDLINK.copy(original.destination.toPath(), destinationPath);
+
+                if (integrityManifest != null) {
+                    // The original may have been rewritten, e.g. recompressed, so the
+                    // link is recorded as the original was written
+                    IntegrityManifest.Entry entry = integrityManifest.get(getBundlePath(original.destination));
+
+                    if (entry == null) {
+                        recordIntegrity(duplicate.destination, Files.size(destinationPath),
+                            BundleManifest.hash(duplicate.destination));
+                    } else {
+                        recordIntegrity(duplicate.destination, entry.size, entry.hash);
+                    }
+                }
+            });
+        }
+    }
+
+    private void copyIcon(File resourcesDirectory) throws IOException {
+        if (icon == null) {
+            copy(getClass().getResource(DEFAULT_ICON_NAME), new File(resourcesDirectory, DEFAULT_ICON_NAME));
+        } else {
+            copy(icon, new File(resourcesDirectory, icon.getName()));
+        }
+    }
+
+    private void copyDocumentIcon(File ifile, File resourcesDirectory) throws IOException {
+        if (icon != null) {
+            copy(ifile, new File(resourcesDirectory, ifile.getName()));
+        }
+    }
+
+    private void writeOptionalProperty(PlistWriter xout, String property, String value) throws IOException {
+        if (value != null) {
+            writeProperty(xout, property, value);
+        }
+    }
+
+    void writeInfoPlist(File file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        PlistWriter xout = plistFormat.newWriter(content);
+
+        // Begin root dictionary
+        xout.writeStartDict();
+
+        // Write bundle properties
+        writeProperty(xout, "CFBundleDevelopmentRegion", "English");
+        writeProperty(xout, "CFBundleExecutable", executableName);
+        writeProperty(xout, "CFBundleIconFile", (icon == null) ? DEFAULT_ICON_NAME : icon.getName());
+        writeProperty(xout, "CFBundleIdentifier", identifier);
+        writeProperty(xout, "CFBundleDisplayName", displayName);
+        writeProperty(xout, "CFBundleInfoDictionaryVersion", "6.0");
+        writeProperty(xout, "CFBundleName", name);
+        writeProperty(xout, "CFBundlePackageType", OS_TYPE_CODE);
+        writeProperty(xout, "CFBundleShortVersionString", shortVersion);
+        writeProperty(xout, "CFBundleVersion", version);
+        writeProperty(xout, "CFBundleSignature", signature);
+        writeProperty(xout, "NSHumanReadableCopyright", copyright);
+
+        writeOptionalProperty(xout, "LSMinimumSystemVersion", minimumSystemVersion);
+        writeOptionalProperty(xout, "LSApplicationCategoryType", applicationCategory);
+
+        if (hideDockIcon) {
+            xout.writeKey("LSUIElement");
+            xout.writeBoolean(true); 
+        }
+        if (highResolutionCapable) {
+            xout.writeKey("NSHighResolutionCapable");
+            xout.writeBoolean(true); 
+        }
+
+        if (includeJavaRootInClasspath) {
+            xout.writeKey("IncludeJavaRoot");
+            xout.writeBoolean(true);
+        }
+
+        if (isClassPathExplicit()) {
+            xout.writeKey("JVMClassPath");
+            xout.writeStartArray();
+
+            for (String classPathEntry : getClassPath()) {
+                xout.writeString(classPathEntry);
+            }
+
+            xout.writeEnd();
+        }
+
+        if (allowHttp) {
+            xout.writeKey("NSAppTransportSecurity");
+            xout.writeStartDict();
+            xout.writeKey("NSAllowsArbitraryLoads");
+            xout.writeBoolean(true);
+            xout.writeEnd();
+        }
+
+        if (supportsAutomaticGraphicsSwitching) {
+            xout.writeKey("NSSupportsAutomaticGraphicsSwitching");
+            xout.writeBoolean(true); 
+        }
+        if (registeredProtocols.size() > 0) {
+            xout.writeKey("CFBundleURLTypes");
+            xout.writeStartArray();
+            xout.writeStartDict();
+
+            writeProperty(xout, "CFBundleURLName", identifier);
+
+            xout.writeKey("CFBundleURLSchemes");
+            xout.writeStartArray();
+            for(String scheme:registeredProtocols) {
+                xout.writeString(scheme);
+            }
+
+            xout.writeEnd();
+            xout.writeEnd();
+            xout.writeEnd();
+        }
+
+        // Write runtime
+        if (modularRuntime != null) {
+            writeProperty(xout, "JVMRuntime", modularRuntime.getName());
+        } else if (runtime != null) {
+            writeProperty(xout, "JVMRuntime", runtime.getDir().getParentFile().getParentFile().getName());
+        }
+
+        writeOptionalProperty(xout, "JVMRunPrivileged", privileged);
+        writeOptionalProperty(xout, "WorkingDirectory", workingDirectory);
+
+        // Write main class name
+        writeProperty(xout, "JVMMainClassName", mainClassName);
+
+        // Write whether launcher be verbose with debug msgs
+        if (isDebug) {
+            xout.writeKey("JVMDebug");
+            xout.writeBoolean(isDebug);
+        }
+
+        // Write CFBundleDocument entries
+        xout.writeKey("CFBundleDocumentTypes");
+        
+        xout.writeStartArray();
+
+        for(BundleDocument bundleDocument: bundleDocuments) {
+            xout.writeStartDict();
+
+            xout.writeKey("CFBundleTypeExtensions");
+            xout.writeStartArray();
+            for(String extension : bundleDocument.getExtensions()) {
+                xout.writeString(extension);
+            }
+            xout.writeEnd();
+
+            if (bundleDocument.hasIcon()) {
+                xout.writeKey("CFBundleTypeIconFile");
+
+                File ifile = bundleDocument.getIconFile();
+
+                if (ifile != null) {
+                    xout.writeString(ifile.getName());
+                } else {
+                    xout.writeString(bundleDocument.getIcon());
+                }
+            }
+
+            writeProperty(xout, "CFBundleTypeName", bundleDocument.getName());
+            writeProperty(xout, "CFBundleTypeRole", bundleDocument.getRole());
+            writeProperty(xout, "LSTypeIsPackage", Boolean.toString(bundleDocument.isPackage()));
+
+            xout.writeEnd();
+        }
+        
+        xout.writeEnd();
+
+        // Write architectures
+        xout.writeKey("LSArchitecturePriority");
+
+        xout.writeStartArray();
+
+        for (String architecture : architectures) {
+            xout.writeString(architecture);
+        }
+
+        xout.writeEnd();
+
+        // Write Environment
+        xout.writeKey("LSEnvironment");
+        xout.writeStartDict();
+        xout.writeKey("LC_CTYPE");
+        xout.writeString("UTF-8");
+        xout.writeEnd();
+
+        // Write options
+        xout.writeKey("JVMOptions");
+
+        xout.writeStartArray();
+
+        for (Option option : options) {
+            if (option.getName() == null) xout.writeString(option.getValue());
+        }
+
+        if (classList && classListOption != null) {
+            xout.writeString(classListOption + JAVA_PATH + "/" + CLASS_LIST_NAME);
+        }
+
+        xout.writeEnd();
+
+        // Write default options
+        xout.writeKey("JVMDefaultOptions");
+
+        xout.writeStartDict();
+
+        for (Option option : options) {
+            if (option.getName() != null) {
+                xout.writeKey(option.getName());
+                xout.writeString(option.getValue());
+            }
+        }
+
+        xout.writeEnd();
+
+        // Write arguments
+        xout.writeKey("JVMArguments");
+
+        xout.writeStartArray();
+
+        for (String argument : arguments) {
+            xout.writeString(argument);
+        }
+
+        xout.writeEnd();
+
+        writeCustomEntries(xout, customPlistEntries);
+
+        // End root dictionary
+        xout.writeEnd();
+        xout.finish();
+
+        write(content.toByteArray(), file, file.getName());
+    }
+
+    private void writeCustomEntries(PlistWriter xout, List<PlistEntry> entries) throws IOException {
         for(PlistEntry entry : entries) {
             writeProperty(xout, entry.getKey(), entry.getValue());
         }
     }
 
-    private void writeKey(XMLStreamWriter xout, String key) throws XMLStreamException {
-        xout.writeStartElement(KEY_TAG);
-        xout.writeCharacters(key);
-        xout.writeEndElement();
+    private void writeProperty(PlistWriter xout, String key, String value) throws IOException {
+        xout.writeKey(key);
+        xout.writeString(value);
     }
 
-    private void writeString(XMLStreamWriter xout, String value) throws XMLStreamException {
-        xout.writeStartElement(STRING_TAG);
-        xout.writeCharacters(value);
-        xout.writeEndElement();
+    private void writePkgInfo(File file) throws IOException {
+        write((OS_TYPE_CODE + signature).getBytes(StandardCharsets.UTF_8), file, file.getName());
     }
-    
-    private void writeBoolean(XMLStreamWriter xout, boolean value) throws XMLStreamException {
-        xout.writeEmptyElement(value ? "true" : "false");
+
+    private String getBundlePath(File file) {
+        return rootDirectory.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
     }
 
-    private void writeProperty(XMLStreamWriter xout, String key, String value) throws XMLStreamException {
-        writeKey(xout, key);
-        writeString(xout, value);
+    private long write(File file, String source, ContentWriter contentWriter) throws IOException {
+        if (bundleArchive != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            contentWriter.write(content);
+            write(content.toByteArray(), file, source);
+
+            return content.size();
+        }
+
+        // Generate the content next to the file, so it can be moved into place
+        File tempFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        MessageDigest digest = BundleManifest.newDigest();
+
+        try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(tempFile.toPath()), BUFFER_SIZE), digest)) {
+            contentWriter.write(out);
+        }
+
+        long size = tempFile.length();
+        String hash = BundleManifest.toHex(digest.digest());
+
+        recordIntegrity(file, size, hash);
+
+        if (manifest != null) {
+            String path = getBundlePath(file);
+            BundleManifest.Entry previous = previousManifest.get(path);
+
+            manifest.put(path, new BundleManifest.Entry(source, size, 0, hash));
+
+            if (previous != null && previous.hash.equals(hash) && file.isFile() && file.length() == size) {
+                Files.delete(tempFile.toPath());
+                return size;
+            }
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        BuildMetrics.recordFile(size);
+
+        return size;
     }
 
-    private void writePkgInfo(File file) throws IOException {
-        Writer out = new BufferedWriter(new FileWriter(file));
+    private void write(byte[] content, File file, String source) throws IOException {
+        if (integrityManifest != null) {
+            recordIntegrity(file, content.length, BundleManifest.hash(content));
+        }
 
-        try {
-            out.write(OS_TYPE_CODE + signature);
-            out.flush();
-        } finally {
-            out.close();
+        if (bundleArchive != null) {
+            bundleArchive.addContent(getArchivePath(file), content, isExecutable(file));
+            BuildMetrics.recordFile(content.length);
+            return;
+        }
+
+        if (manifest != null) {
+            String path = getBundlePath(file);
+            String hash = BundleManifest.hash(content);
+            BundleManifest.Entry previous = previousManifest.get(path);
+
+            manifest.put(path, new BundleManifest.Entry(source, content.length, 0, hash));
+
+            if (previous != null && previous.hash.equals(hash)
+                && file.isFile() && file.length() == content.length) {
+                return;
+            }
         }
+
+        // The file may be a link to a source or a stored object, so it is
+        // replaced rather than written through
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        Files.write(tempFile.toPath(), content);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        BuildMetrics.recordFile(content.length);
     }
 
-    private static void delete(File file) throws IOException {
-        Path filePath = file.toPath();
+    private void deleteStaleFiles() throws IOException {
+        Set<String> stalePaths = previousManifest.getPaths();
+        stalePaths.removeAll(manifest.getPaths());
 
-        if (Files.exists(filePath, LinkOption.NOFOLLOW_LINKS)) {
-            if (Files.isDirectory(filePath, LinkOption.NOFOLLOW_LINKS)) {
-                File[] files = file.listFiles();
+        for (String stalePath : stalePaths) {
+            Files.deleteIfExists(new File(rootDirectory, stalePath).toPath());
 
-                for (int i = 0; i < files.length; i++) {
-                    delete(files[i]);
+            // Remove directories left empty, but keep the Contents/* layout in place
+            String directoryPath = stalePath.substring(0, stalePath.lastIndexOf('/'));
+            while (directoryPath.indexOf('/') != directoryPath.lastIndexOf('/')) {
+                File directory = new File(rootDirectory, directoryPath);
+                String[] files = directory.list();
+                if (files == null || files.length > 0) {
+                    break;
                 }
-            }
 
-            Files.delete(filePath);
+                Files.delete(directory.toPath());
+                directoryPath = directoryPath.substring(0, directoryPath.lastIndexOf('/'));
+            }
         }
     }
 
-    private static void copy(URL location, File file) throws IOException {
+    private void copy(URL location, File file) throws IOException {
         try (InputStream in = location.openStream()) {
-            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                content.write(buffer, 0, n);
+            }
+
+            write(content.toByteArray(), file, location.toString());
         }
         catch (Exception exc)
         {
@@ -811,21 +2074,148 @@ public class AppBundlerTask extends Task {
         }
     }
 
-    private static void copy(File source, File destination) throws IOException {
-        Path sourcePath = source.toPath();
-        Path destinationPath = destination.toPath();
-
-        destination.getParentFile().mkdirs();
-
-        Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+    private void copy(final File source, final File destination) throws IOException {
+        if (Files.isDirectory(source.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            createDirectories(destination);
 
-        if (Files.isDirectory(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
             String[] files = source.list();
 
             for (int i = 0; i < files.length; i++) {
                 String file = files[i];
                 copy(new File(source, file), new File(destination, file));
             }
+        } else {
+            if (bundleArchive == null) {
+                copyEngine.createDirectories(destination.getParentFile());
+            }
+
+            copyEngine.submit(destination, () -> copyFile(source, destination));
+        }
+    }
+
+    private void createDirectories(File directory) throws IOException {
+        if (bundleArchive == null) {
+            copyEngine.createDirectories(directory);
+        } else {
+            bundleArchive.addDirectory(getArchivePath(directory));
+        }
+    }
+
+    private String getArchivePath(File file) {
+        String path = getBundlePath(file);
+        return (path.length() == 0) ? name + ".app" : name + ".app/" + path;
+    }
+
+    /**
+     * Returns true if the given bundle file must be executable, i.e. the
+     * launcher and native libraries in the MacOS folder.
+     */
+    private boolean isExecutable(File file) {
+        return getBundlePath(file).startsWith("Contents/MacOS/");
+    }
+
+    private void copyFile(File source, File destination) throws IOException {
+        Path sourcePath = source.toPath();
+        Path destinationPath = destination.toPath();
+        boolean symbolicLink = Files.isSymbolicLink(sourcePath);
+
+        if (bundleArchive != null) {
+            long size = bundleArchive.addFile(getArchivePath(destination), sourcePath, isExecutable(destination));
+            BuildMetrics.recordFile(size);
+
+            if (integrityManifest != null) {
+                // The archive reads the file itself, so its hash takes another read
+                recordIntegrity(destination, symbolicLink ? 0 : size, BundleManifest.hash(source));
+            }
+
+            return;
+        }
+
+        String hash = null;
+
+        if (manifest != null) {
+            // Skip files whose source is unchanged since the previous build
+            String path = getBundlePath(destination);
+            BasicFileAttributes attributes = Files.readAttributes(sourcePath, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+
+            BundleManifest.Entry previous = previousManifest.get(path);
+            boolean present = previous != null && Files.exists(destinationPath, LinkOption.NOFOLLOW_LINKS);
+
+            if (present && previous.source.equals(source.getAbsolutePath())
+                && previous.size == size && previous.lastModified == lastModified) {
+                manifest.put(path, previous);
+                recordIntegrity(destination, symbolicLink ? 0 : size, previous.hash);
+                return;
+            }
+
+            hash = (contentStore != null && !symbolicLink)
+                ? contentStore.hash(sourcePath) : BundleManifest.hash(source);
+            manifest.put(path, new BundleManifest.Entry(source.getAbsolutePath(), size, lastModified, hash));
+
+            if (present && previous.hash.equals(hash)) {
+                recordIntegrity(destination, symbolicLink ? 0 : size, hash);
+                return;
+            }
+        }
+
+        if (contentStore != null && !symbolicLink) {
+            if (hash == null && integrityManifest != null) {
+                hash = contentStore.hash(sourcePath);
+            }
+
+            contentStore.copy(sourcePath, destinationPath);
+        } else if (copyPipeline != null && copyStrategy == CopyStrategy.COPY && !symbolicLink) {
+            // The size is known once the contents have passed through, without another stat
+            CopyPipeline.Result result = copyPipeline.copy(sourcePath, destinationPath,
+                hash == null && integrityManifest != null);
+
+            BuildMetrics.recordFile(result.size);
+            recordIntegrity(destination, result.size, (result.hash == null) ? hash : result.hash);
+
+            return;
+        } else if (hash == null && integrityManifest != null && copyStrategy == CopyStrategy.COPY
+            && !symbolicLink) {
+            // Hash the contents on their way through rather than reading them twice
+            hash = CopyStrategy.copyAndHash(sourcePath, destinationPath);
+        } else {
+            copyStrategy.copy(sourcePath, destinationPath);
+        }
+
+        BuildMetrics.recordFile(destinationPath);
+
+        if (integrityManifest != null) {
+            // Links and clones do not read the source, so it is read here once
+            if (hash == null) {
+                hash = BundleManifest.hash(source);
+            }
+
+            recordIntegrity(destination, symbolicLink ? 0 : Files.size(destinationPath), hash);
+        }
+    }
+
+    private void recordIntegrity(File file, long size, String hash) {
+        if (integrityManifest != null) {
+            integrityManifest.put(getBundlePath(file), size, hash);
+        }
+    }
+
+    /**
+     * Hashes the files of a directory that was written into the bundle
+     * without passing through the task, e.g. a linked runtime image.
+     */
+    private void recordIntegrity(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    final File file = path.toFile();
+
+                    copyEngine.submit(file, () -> recordIntegrity(file,
+                        Files.isSymbolicLink(file.toPath()) ? 0 : file.length(), BundleManifest.hash(file)));
+                }
+            }
         }
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import com.oracle.appbundler.archive.BundleArchive;
+import com.oracle.appbundler.archive.TarGzBundleArchive;
+import com.oracle.appbundler.archive.ZipBundleArchive;
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Formats into which an app bundle can be written instead of a directory,
+ * chosen by the extension of the archive file.
+ */
+enum ArchiveFormat {
+    /** A zip file, as created by <code>ditto -c -k</code>. */
+    ZIP(".zip"),
+
+    /** A gzip compressed tar file. */
+    TAR_GZ(".tar.gz", ".tgz");
+
+    private final String[] extensions;
+
+    private ArchiveFormat(String... extensions) {
+        this.extensions = extensions;
+    }
+
+    public static ArchiveFormat forFile(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+
+        for (ArchiveFormat format : values()) {
+            for (String extension : format.extensions) {
+                if (name.endsWith(extension)) {
+                    return format;
+                }
+            }
+        }
+
+        throw new BuildException("Unsupported archive format: " + file.getName());
+    }
+
+    public BundleArchive newArchive(OutputStream out, int level, int threads) throws IOException {
+        return (this == TAR_GZ) ? new TarGzBundleArchive(out, level, threads)
+            : new ZipBundleArchive(out, level, threads);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes directory trees in the background. A tree is first renamed aside,
+ * so its original location can be reused immediately, and is then deleted
+ * by a parallel walker. Pending deletions are completed before the VM exits.
+ */
+final class BackgroundDeleter {
+    private static final String DELETING_SUFFIX = ".deleting-";
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("appbundler-delete") {
+            @Override
+            public void run() {
+                awaitPending();
+            }
+        });
+    }
+
+    private BackgroundDeleter() {
+    }
+
+    /**
+     * Moves the given file out of the way and schedules it for deletion.
+     */
+    public static void discard(File file) throws IOException {
+        Path path = file.toPath();
+
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        Path trash = path.resolveSibling(getTrashPrefix(file.getName()) + System.nanoTime());
+
+        try {
+            Files.move(path, trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exception) {
+            // Delete in place if the tree cannot be renamed
+            delete(file);
+            return;
+        }
+
+        pool.execute(new DeleteAction(trash));
+    }
+
+    /**
+     * Deletes the given file or directory tree and waits for the deletion to
+     * complete.
+     */
+    public static void delete(File file) {
+        pool.invoke(new DeleteAction(file.toPath()));
+    }
+
+    /**
+     * Waits for all scheduled deletions to complete.
+     */
+    public static void awaitPending() {
+        pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the deletion of trees that were discarded from the given
+     * location but not deleted, e.g. because the VM was killed.
+     */
+    public static void discardLeftovers(File file) throws IOException {
+        // The name is matched literally, as it may contain glob syntax
+        String prefix = getTrashPrefix(file.getName());
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParentFile().toPath())) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+
+                if (name.startsWith(prefix) && isTimestamp(name.substring(prefix.length()))) {
+                    pool.execute(new DeleteAction(path));
+                }
+            }
+        }
+    }
+
+    private static boolean isTimestamp(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (!(c >= '0' && c <= '9') && !(i == 0 && c == '-')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String getTrashPrefix(String name) {
+        return (name.startsWith(".") ? name : "." + name) + DELETING_SUFFIX;
+    }
+
+    private static class DeleteAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+
+        DeleteAction(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    List<DeleteAction> subdirectories = new ArrayList<>();
+
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                        for (Path child : stream) {
+                            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                                subdirectories.add(new DeleteAction(child));
+                            } else {
+                                Files.delete(child);
+                            }
+                        }
+                    }
+
+                    invokeAll(subdirectories);
+                }
+
+                Files.deleteIfExists(path);
+            } catch (IOException exception) {
+                System.err.println("Unable to delete " + path + ": " + exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Wall time, file count and bytes written for each phase of a bundle build.
+ * File operations are attributed to the phase in which they were submitted,
+ * so a phase ends when its last operation completes, which may be after the
+ * next phase has started.
+ */
+class BuildMetrics {
+    /**
+     * A phase of the build.
+     */
+    static class Phase {
+        final String name;
+        final long startTime;
+        private long endTime;
+        private final AtomicInteger fileCount = new AtomicInteger();
+        private final AtomicLong byteCount = new AtomicLong();
+
+        Phase(String name) {
+            this.name = name;
+            startTime = System.nanoTime();
+            endTime = startTime;
+        }
+
+        /**
+         * Runs an operation on behalf of this phase.
+         */
+        void run(CopyEngine.Operation operation) throws IOException {
+            Phase previous = activePhase.get();
+            activePhase.set(this);
+
+            try {
+                operation.run();
+            } finally {
+                activePhase.set(previous);
+                end();
+            }
+        }
+
+        synchronized void end() {
+            endTime = Math.max(endTime, System.nanoTime());
+        }
+
+        synchronized long getEndTime() {
+            return endTime;
+        }
+
+        long getMillis() {
+            return (getEndTime() - startTime) / 1000000;
+        }
+
+        int getFileCount() {
+            return fileCount.get();
+        }
+
+        long getByteCount() {
+            return byteCount.get();
+        }
+
+        long getBytesPerSecond() {
+            long nanos = getEndTime() - startTime;
+            return (nanos == 0) ? 0 : (long) (byteCount.get() * 1e9 / nanos);
+        }
+    }
+
+    private static final ThreadLocal<Phase> activePhase = new ThreadLocal<>();
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final long startTime = System.currentTimeMillis();
+    private Phase currentPhase = null;
+
+    /**
+     * Ends the current phase and starts the next one on the calling thread.
+     */
+    public void startPhase(String name) {
+        endPhase();
+
+        currentPhase = new Phase(name);
+        phases.add(currentPhase);
+        activePhase.set(currentPhase);
+    }
+
+    public void endPhase() {
+        if (currentPhase != null) {
+            currentPhase.end();
+            currentPhase = null;
+            activePhase.remove();
+        }
+    }
+
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * Returns the phase of the operation running on the calling thread.
+     */
+    static Phase getActivePhase() {
+        return activePhase.get();
+    }
+
+    /**
+     * Records a file written by the operation running on the calling thread.
+     */
+    static void recordFile(long size) {
+        Phase phase = activePhase.get();
+
+        if (phase != null) {
+            phase.fileCount.incrementAndGet();
+            phase.byteCount.addAndGet(size);
+        }
+    }
+
+    /**
+     * Records a file written by the operation running on the calling thread,
+     * reading its size only if metrics are being collected.
+     */
+    static void recordFile(Path file) throws IOException {
+        if (activePhase.get() != null) {
+            recordFile(Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size());
+        }
+    }
+
+    /**
+     * Sets properties named <code><i>prefix</i>.<i>phase</i>.millis</code>,
+     * <code>.files</code>, <code>.bytes</code> and <code>.bytesPerSecond</code>,
+     * and the same for the <code>total</code> of all phases.
+     */
+    public void setProperties(Project project, String prefix) {
+        for (Phase phase : phases) {
+            setProperties(project, prefix + "." + phase.name, phase.getMillis(), phase.getFileCount(),
+                phase.getByteCount(), phase.getBytesPerSecond());
+        }
+
+        long totalMillis = getTotalMillis();
+        long totalBytes = getTotalByteCount();
+        setProperties(project, prefix + ".total", totalMillis, getTotalFileCount(), totalBytes,
+            (totalMillis == 0) ? 0 : totalBytes * 1000 / totalMillis);
+    }
+
+    private static void setProperties(Project project, String prefix, long millis, int fileCount, long byteCount,
+        long bytesPerSecond) {
+        project.setNewProperty(prefix + ".millis", Long.toString(millis));
+        project.setNewProperty(prefix + ".files", Integer.toString(fileCount));
+        project.setNewProperty(prefix + ".bytes", Long.toString(byteCount));
+        project.setNewProperty(prefix + ".bytesPerSecond", Long.toString(bytesPerSecond));
+    }
+
+    /**
+     * Writes a report of the given bundle. Files ending in <code>.csv</code>
+     * get one row per phase appended, so that they collect the history of a
+     * bundle; other files are overwritten with a JSON document.
+     */
+    public void writeReport(File file, String bundleName) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        if (file.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+            writeCSVReport(file, bundleName);
+        } else {
+            writeJSONReport(file, bundleName);
+        }
+    }
+
+    private void writeCSVReport(File file, String bundleName) throws IOException {
+        boolean newFile = !file.exists() || file.length() == 0;
+
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (newFile) {
+                out.write("bundle,timestamp,phase,millis,files,bytes,bytesPerSecond\n");
+            }
+
+            for (Phase phase : phases) {
+                out.write(quoteCSV(bundleName) + "," + startTime + "," + phase.name + "," + phase.getMillis() + ","
+                    + phase.getFileCount() + "," + phase.getByteCount() + "," + phase.getBytesPerSecond() + "\n");
+            }
+        }
+    }
+
+    private void writeJSONReport(File file, String bundleName) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"bundle\": ").append(quoteJSON(bundleName)).append(",\n");
+        json.append("  \"timestamp\": ").append(startTime).append(",\n");
+        json.append("  \"millis\": ").append(getTotalMillis()).append(",\n");
+        json.append("  \"files\": ").append(getTotalFileCount()).append(",\n");
+        json.append("  \"bytes\": ").append(getTotalByteCount()).append(",\n");
+        json.append("  \"phases\": [");
+
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+
+            json.append((i == 0) ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(quoteJSON(phase.name));
+            json.append(", \"millis\": ").append(phase.getMillis());
+            json.append(", \"files\": ").append(phase.getFileCount());
+            json.append(", \"bytes\": ").append(phase.getByteCount());
+            json.append(", \"bytesPerSecond\": ").append(phase.getBytesPerSecond()).append("}");
+        }
+
+        json.append("\n  ]\n}\n");
+
+        Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long getTotalMillis() {
+        if (phases.isEmpty()) {
+            return 0;
+        }
+
+        long endTime = 0;
+        for (Phase phase : phases) {
+            endTime = Math.max(endTime, phase.getEndTime());
+        }
+
+        return (endTime - phases.get(0).startTime) / 1000000;
+    }
+
+    private int getTotalFileCount() {
+        int fileCount = 0;
+        for (Phase phase : phases) {
+            fileCount += phase.getFileCount();
+        }
+
+        return fileCount;
+    }
+
+    private long getTotalByteCount() {
+        long byteCount = 0;
+        for (Phase phase : phases) {
+            byteCount += phase.getByteCount();
+        }
+
+        return byteCount;
+    }
+
+    private static String quoteCSV(String value) {
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+            return value;
+        }
+
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String quoteJSON(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Record of every file written into an app bundle, used to rebuild the
+ * bundle incrementally.
+ */
+class BundleManifest {
+    /**
+     * A single file written into the bundle.
+     */
+    static class Entry {
+        final String source;
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        Entry(String source, long size, long lastModified, String hash) {
+            this.source = source;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private static final String HEADER = "# appbundler manifest 1";
+    private static final int BUFFER_SIZE = 65536;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public synchronized void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    public synchronized Set<String> getPaths() {
+        return new TreeSet<>(entries.keySet());
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public static BundleManifest load(File file) throws IOException {
+        BundleManifest manifest = new BundleManifest();
+
+        if (!file.isFile()) {
+            return manifest;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (!HEADER.equals(line)) {
+                // Unknown format; treat as if no manifest had been written
+                return manifest;
+            }
+
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length != 5) {
+                    throw new IOException("Invalid manifest entry: " + line);
+                }
+
+                manifest.entries.put(fields[0], new Entry(fields[4], Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]), fields[3]));
+            }
+        } catch (NumberFormatException exception) {
+            throw new IOException("Invalid manifest " + file, exception);
+        }
+
+        return manifest;
+    }
+
+    public synchronized void save(File file) throws IOException {
+        Path filePath = file.toPath();
+        Path tempPath = filePath.resolveSibling(file.getName() + ".tmp");
+
+        try (Writer out = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.write(mapEntry.getKey());
+                out.write('\t');
+                out.write(Long.toString(entry.size));
+                out.write('\t');
+                out.write(Long.toString(entry.lastModified));
+                out.write('\t');
+                out.write(entry.hash);
+                out.write('\t');
+                out.write(entry.source);
+                out.write('\n');
+            }
+        }
+
+        Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    static String hash(File file) throws IOException {
+        Path path = file.toPath();
+
+        if (Files.isSymbolicLink(path)) {
+            return hash(("link:" + Files.readSymbolicLink(path)).getBytes(StandardCharsets.UTF_8));
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    static String hash(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+import com.oracle.appbundler.patch.PatchWriter;
+
+/**
+ * Ant task that writes a patch from a previous build of an app bundle to a
+ * new one. The patch is applied with
+ * {@link com.oracle.appbundler.patch.PatchApplier}.
+ */
+public class BundlePatchTask extends Task {
+    private File from = null;
+    private File to = null;
+    private File patch = null;
+
+    public void setFrom(File from) {
+        this.from = from;
+    }
+
+    public void setTo(File to) {
+        this.to = to;
+    }
+
+    public void setPatch(File patch) {
+        this.patch = patch;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (from == null) {
+            throw new IllegalStateException("Previous bundle is required.");
+        }
+
+        if (!from.isDirectory()) {
+            throw new IllegalStateException("Previous bundle does not exist.");
+        }
+
+        if (to == null) {
+            throw new IllegalStateException("Bundle is required.");
+        }
+
+        if (!to.isDirectory()) {
+            throw new IllegalStateException("Bundle does not exist.");
+        }
+
+        if (patch == null) {
+            throw new IllegalStateException("Patch is required.");
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        PatchWriter.Report report;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(patch))) {
+            report = new PatchWriter(from, to).write(out);
+        } catch (IOException exception) {
+            patch.delete();
+            throw new BuildException(exception);
+        }
+
+        System.out.println("Wrote patch " + patch.getName() + ": " + report + ", " + patch.length()
+            + " bytes in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+}
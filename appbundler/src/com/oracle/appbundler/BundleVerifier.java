@@ -0,0 +1,410 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * Verifies an app bundle against the integrity manifest written into it by
+ * {@link AppBundlerTask}. Files are hashed in parallel, largest first; small
+ * files are read into a reused buffer and larger files are memory-mapped.
+ * <p>
+ * Code signing rewrites Mach-O files in place, e.g. the launcher and the
+ * libraries of the runtime, to embed their signatures. A Mach-O file that
+ * differs from the manifest but carries a code signature is therefore not
+ * reported as modified but as signed; its contents are covered by the
+ * code signature, which is checked with <code>codesign --verify</code>.
+ */
+public class BundleVerifier {
+    /**
+     * The outcome of a verification.
+     */
+    public static class Result {
+        private final List<String> missingPaths;
+        private final List<String> modifiedPaths;
+        private final List<String> unexpectedPaths;
+        private final List<String> signedPaths;
+        private final int fileCount;
+        private final long byteCount;
+
+        Result(List<String> missingPaths, List<String> modifiedPaths, List<String> unexpectedPaths,
+            List<String> signedPaths, int fileCount, long byteCount) {
+            this.missingPaths = missingPaths;
+            this.modifiedPaths = modifiedPaths;
+            this.unexpectedPaths = unexpectedPaths;
+            this.signedPaths = signedPaths;
+            this.fileCount = fileCount;
+            this.byteCount = byteCount;
+        }
+
+        /**
+         * Returns the files in the manifest that are not in the bundle.
+         */
+        public List<String> getMissingPaths() {
+            return missingPaths;
+        }
+
+        /**
+         * Returns the files whose size or hash differs from the manifest.
+         */
+        public List<String> getModifiedPaths() {
+            return modifiedPaths;
+        }
+
+        /**
+         * Returns the files in the bundle that are not in the manifest, e.g.
+         * left over from another version. These do not fail verification.
+         */
+        public List<String> getUnexpectedPaths() {
+            return unexpectedPaths;
+        }
+
+        /**
+         * Returns the Mach-O files that differ from the manifest because a
+         * code signature was embedded into them. These do not fail
+         * verification; their contents are left to the code signature.
+         */
+        public List<String> getSignedPaths() {
+            return signedPaths;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        public boolean isValid() {
+            return missingPaths.isEmpty() && modifiedPaths.isEmpty();
+        }
+    }
+
+    // Added by code signing after the bundle is built
+    private static final String CODE_SIGNATURE_PREFIX = "Contents/_CodeSignature/";
+    private static final String CODE_RESOURCES_PATH = "Contents/CodeResources";
+
+    // Mach-O magic numbers, as read in big-endian order
+    private static final int MH_MAGIC = 0xFEEDFACE;
+    private static final int MH_MAGIC_64 = 0xFEEDFACF;
+    private static final int MH_CIGAM = 0xCEFAEDFE;
+    private static final int MH_CIGAM_64 = 0xCFFAEDFE;
+    private static final int FAT_MAGIC = 0xCAFEBABE;
+    private static final int FAT_MAGIC_64 = 0xCAFEBABF;
+    private static final int LC_CODE_SIGNATURE = 0x1D;
+
+    // Java class files share the magic number of universal binaries, but
+    // their version numbers are far larger than any architecture count
+    private static final int MAX_FAT_ARCH_COUNT = 20;
+
+    private static final int READ_LIMIT = 262144;
+    private static final long MAPPING_SIZE = 1L << 26;
+
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(BundleManifest::newDigest);
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(
+        () -> ByteBuffer.allocate(READ_LIMIT));
+
+    private final int threadCount;
+
+    public BundleVerifier(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public Result verify(File bundleDirectory) throws IOException {
+        final Path bundlePath = bundleDirectory.toPath();
+        Map<String, IntegrityManifest.Entry> entries = IntegrityManifest.load(bundleDirectory).getEntries();
+
+        // Hash the largest files first, so they do not finish last on a single thread
+        List<Map.Entry<String, IntegrityManifest.Entry>> sortedEntries = new ArrayList<>(entries.entrySet());
+        sortedEntries.sort((entry1, entry2) -> Long.compare(entry2.getValue().size, entry1.getValue().size));
+
+        final ConcurrentLinkedQueue<String> missingPaths = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<String> modifiedPaths = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<String> signedPaths = new ConcurrentLinkedQueue<>();
+        long byteCount = 0;
+
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(sortedEntries.size());
+
+            for (final Map.Entry<String, IntegrityManifest.Entry> mapEntry : sortedEntries) {
+                final String path = mapEntry.getKey();
+                final IntegrityManifest.Entry entry = mapEntry.getValue();
+                byteCount += entry.size;
+
+                tasks.add(pool.submit(() -> {
+                    try {
+                        Path file = bundlePath.resolve(path);
+
+                        if (!verify(file, entry)) {
+                            if (isSignedMachO(file)) {
+                                signedPaths.add(path);
+                            } else {
+                                modifiedPaths.add(path);
+                            }
+                        }
+                    } catch (NoSuchFileException exception) {
+                        missingPaths.add(path);
+                    } catch (IOException exception) {
+                        System.err.println("Unable to read " + path + ": " + exception);
+                        modifiedPaths.add(path);
+                    }
+                }));
+            }
+
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        List<String> unexpectedPaths = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.walk(bundlePath)) {
+            for (Path file : (Iterable<Path>) paths::iterator) {
+                String path = bundlePath.relativize(file).toString().replace(File.separatorChar, '/');
+
+                if (!entries.containsKey(path) && !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)
+                    && !path.equals(IntegrityManifest.PATH) && !path.startsWith(CODE_SIGNATURE_PREFIX)
+                    && !path.equals(CODE_RESOURCES_PATH)) {
+                    unexpectedPaths.add(path);
+                }
+            }
+        }
+
+        return new Result(sort(missingPaths), sort(modifiedPaths), unexpectedPaths, sort(signedPaths),
+            entries.size(), byteCount);
+    }
+
+    private static boolean verify(Path file, IntegrityManifest.Entry entry) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+
+        if (attributes.isSymbolicLink()) {
+            return BundleManifest.hash(file.toFile()).equals(entry.hash);
+        }
+
+        // A size mismatch is found without reading the file
+        if (attributes.size() != entry.size) {
+            return false;
+        }
+
+        return hash(file, entry.size).equals(entry.hash);
+    }
+
+    /**
+     * Returns true if the given file is a Mach-O file or a universal binary.
+     */
+    static boolean isMachO(Path file) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 8);
+            if (header == null) {
+                return false;
+            }
+
+            int magic = header.getInt(0);
+            if (magic == FAT_MAGIC || magic == FAT_MAGIC_64) {
+                int archCount = header.getInt(4);
+                return archCount > 0 && archCount <= MAX_FAT_ARCH_COUNT;
+            }
+
+            return magic == MH_MAGIC || magic == MH_MAGIC_64 || magic == MH_CIGAM || magic == MH_CIGAM_64;
+        }
+    }
+
+    /**
+     * Returns true if the given file is a Mach-O file, or a universal binary,
+     * with a code signature load command.
+     */
+    static boolean isSignedMachO(Path file) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 8);
+            if (header == null) {
+                return false;
+            }
+
+            int magic = header.getInt(0);
+            if (magic != FAT_MAGIC && magic != FAT_MAGIC_64) {
+                return hasCodeSignature(channel, 0);
+            }
+
+            int archCount = header.getInt(4);
+            if (archCount <= 0 || archCount > MAX_FAT_ARCH_COUNT) {
+                return false;
+            }
+
+            // Every architecture of a signed universal binary is signed
+            int archSize = (magic == FAT_MAGIC) ? 20 : 32;
+            ByteBuffer archs = read(channel, 8, archCount * archSize);
+            if (archs == null) {
+                return false;
+            }
+
+            for (int i = 0; i < archCount; i++) {
+                long offset = (magic == FAT_MAGIC) ? archs.getInt(i * archSize + 8) & 0xFFFFFFFFL
+                    : archs.getLong(i * archSize + 8);
+
+                if (!hasCodeSignature(channel, offset)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private static boolean hasCodeSignature(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = read(channel, offset, 28);
+        if (header == null) {
+            return false;
+        }
+
+        int magic = header.getInt(0);
+        int headerSize;
+
+        if (magic == MH_MAGIC || magic == MH_MAGIC_64) {
+            headerSize = (magic == MH_MAGIC) ? 28 : 32;
+        } else if (magic == MH_CIGAM || magic == MH_CIGAM_64) {
+            headerSize = (magic == MH_CIGAM) ? 28 : 32;
+            header.order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            return false;
+        }
+
+        int commandCount = header.getInt(16);
+        int commandsSize = header.getInt(20);
+        if (commandCount < 0 || commandsSize < 0 || commandsSize > READ_LIMIT) {
+            return false;
+        }
+
+        ByteBuffer commands = read(channel, offset + headerSize, commandsSize);
+        if (commands == null) {
+            return false;
+        }
+
+        commands.order(header.order());
+
+        int position = 0;
+        for (int i = 0; i < commandCount && position + 8 <= commandsSize; i++) {
+            int command = commands.getInt(position);
+            int commandSize = commands.getInt(position + 4);
+
+            if (command == LC_CODE_SIGNATURE) {
+                return true;
+            }
+
+            if (commandSize < 8) {
+                return false;
+            }
+
+            position += commandSize;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the given range of a file, or returns null if the file ends
+     * before it.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                return null;
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String hash(Path file, long size) throws IOException {
+        MessageDigest digest = digests.get();
+        digest.reset();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size <= READ_LIMIT) {
+                ByteBuffer buffer = buffers.get();
+                buffer.clear();
+
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Keep reading until the buffer is full or the file ends
+                }
+
+                digest.update(buffer.array(), 0, buffer.position());
+            } else {
+                for (long position = 0; position < size; position += MAPPING_SIZE) {
+                    MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAPPING_SIZE, size - position));
+                    digest.update(mappedBuffer);
+                }
+            }
+        }
+
+        return BundleManifest.toHex(digest.digest());
+    }
+
+    private static List<String> sort(ConcurrentLinkedQueue<String> paths) {
+        List<String> sortedPaths = new ArrayList<>(paths);
+        Collections.sort(sortedPaths);
+
+        return sortedPaths;
+    }
+}
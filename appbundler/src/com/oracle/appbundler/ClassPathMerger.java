@@ -0,0 +1,391 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Merges the jars of an application class path into a single jar. Entries
+ * are resolved as they would be on the class path, i.e. the first jar wins,
+ * unless a merge rule says otherwise. Service provider registrations are
+ * combined, signatures are dropped and a jar index is generated.
+ * <p>
+ * The manifests of the jars are merged as well. Per-entry sections are
+ * carried over without their digests, and the package attributes of each
+ * jar's main section (<code>Sealed</code>, <code>Implementation-*</code>,
+ * <code>Specification-*</code>) are moved into sections for the packages
+ * of that jar, so they keep applying to the same classes. The values of
+ * <code>Add-Opens</code> and <code>Add-Exports</code> are combined. Other
+ * main attributes are taken from the first jar that has them, except
+ * <code>Class-Path</code> and <code>Automatic-Module-Name</code>, which
+ * do not hold for the merged jar.
+ */
+class ClassPathMerger {
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final String MULTI_RELEASE = "Multi-Release";
+    private static final String CLASS_SUFFIX = ".class";
+
+    // Main attributes that apply to the packages of their jar
+    private static final Set<Attributes.Name> PACKAGE_ATTRIBUTES = new HashSet<>(Arrays.asList(
+        Attributes.Name.SEALED,
+        Attributes.Name.SPECIFICATION_TITLE,
+        Attributes.Name.SPECIFICATION_VERSION,
+        Attributes.Name.SPECIFICATION_VENDOR,
+        Attributes.Name.IMPLEMENTATION_TITLE,
+        Attributes.Name.IMPLEMENTATION_VERSION,
+        Attributes.Name.IMPLEMENTATION_VENDOR));
+
+    // Main attributes whose values are lists that are combined
+    private static final Set<Attributes.Name> LIST_ATTRIBUTES = new HashSet<>(Arrays.asList(
+        new Attributes.Name("Add-Opens"),
+        new Attributes.Name("Add-Exports")));
+
+    // Main attributes that are written by the merger or do not hold for the merged jar
+    private static final Set<Attributes.Name> DROPPED_ATTRIBUTES = new HashSet<>(Arrays.asList(
+        Attributes.Name.MANIFEST_VERSION,
+        new Attributes.Name("Created-By"),
+        new Attributes.Name(MULTI_RELEASE),
+        Attributes.Name.CLASS_PATH,
+        new Attributes.Name("Automatic-Module-Name")));
+
+    private final List<File> jars;
+    private final List<MergeRule> mergeRules;
+    private final JarCompression compression;
+
+    // Entries to write, in order of first appearance, and the index of the
+    // jar each entry is taken from
+    private final Map<String, Integer> entries = new LinkedHashMap<>();
+    private final Map<String, MergeRule.Action> actions = new LinkedHashMap<>();
+    private int duplicateCount = 0;
+    private boolean multiRelease = false;
+    private final Manifest manifest = new Manifest();
+
+    public ClassPathMerger(List<File> jars, List<MergeRule> mergeRules, JarCompression compression) {
+        this.jars = jars;
+        this.mergeRules = mergeRules;
+        this.compression = compression;
+    }
+
+    public void merge(OutputStream outputStream, String jarName) throws IOException {
+        List<ZipFile> zipFiles = new ArrayList<>();
+
+        try {
+            for (File jar : jars) {
+                zipFiles.add(new ZipFile(jar));
+            }
+
+            // Resolve duplicates using the central directories only
+            for (int i = 0; i < zipFiles.size(); i++) {
+                scan(zipFiles, i);
+            }
+
+            ZipOutputStream out = compression.newOutputStream(outputStream);
+
+            writeManifest(out);
+            writeIndex(out, jarName);
+
+            for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+                String entryName = entry.getKey();
+
+                if (actions.get(entryName) == MergeRule.Action.CONCAT) {
+                    writeConcatenated(out, zipFiles, entryName);
+                } else {
+                    ZipFile zipFile = zipFiles.get(entry.getValue());
+                    compression.copyEntry(zipFile, zipFile.getEntry(entryName), out);
+                }
+            }
+
+            out.finish();
+        } finally {
+            for (ZipFile zipFile : zipFiles) {
+                zipFile.close();
+            }
+        }
+
+        System.out.println("Merged " + jars.size() + " jars into " + jarName + ": " + entries.size()
+            + " entries, " + duplicateCount + " conflicting duplicates resolved");
+    }
+
+    private void scan(List<ZipFile> zipFiles, int index) throws IOException {
+        ZipFile zipFile = zipFiles.get(index);
+        Manifest jarManifest = null;
+        Set<String> packageNames = new LinkedHashSet<>();
+
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            String entryName = zipEntry.getName();
+
+            if (entryName.equals(Jars.MANIFEST_NAME)) {
+                try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                    jarManifest = new Manifest(in);
+                    multiRelease |= Boolean.parseBoolean(jarManifest.getMainAttributes().getValue(MULTI_RELEASE));
+                }
+
+                continue;
+            }
+
+            if (entryName.endsWith(CLASS_SUFFIX) && !entryName.startsWith("META-INF/")) {
+                int i = entryName.lastIndexOf('/');
+                if (i != -1) {
+                    packageNames.add(entryName.substring(0, i + 1));
+                }
+            }
+
+            if (entryName.equals(Jars.INDEX_NAME) || Jars.isSignatureFile(entryName)) {
+                continue;
+            }
+
+            MergeRule.Action action = getAction(entryName);
+            Integer previous = entries.get(entryName);
+
+            if (previous == null) {
+                entries.put(entryName, index);
+                actions.put(entryName, action);
+            } else if (!zipEntry.isDirectory() && action != MergeRule.Action.CONCAT) {
+                ZipEntry previousEntry = zipFiles.get(previous).getEntry(entryName);
+
+                if (previousEntry.getCrc() != zipEntry.getCrc() || previousEntry.getSize() != zipEntry.getSize()) {
+                    if (action == MergeRule.Action.FAIL) {
+                        throw new BuildException("Conflicting entry " + entryName + " in " + jars.get(previous)
+                            + " and " + jars.get(index) + ".");
+                    }
+
+                    duplicateCount++;
+                }
+
+                if (action == MergeRule.Action.LAST) {
+                    entries.put(entryName, index);
+                }
+            }
+        }
+
+        if (jarManifest != null) {
+            mergeManifest(jarManifest, packageNames);
+        }
+    }
+
+    /**
+     * Merges the manifest of a jar into the manifest of the merged jar. The
+     * values of jars earlier on the class path take precedence.
+     */
+    private void mergeManifest(Manifest jarManifest, Set<String> packageNames) {
+        Map<String, Attributes> sections = manifest.getEntries();
+
+        for (Map.Entry<String, Attributes> jarSection : jarManifest.getEntries().entrySet()) {
+            Attributes section = null;
+
+            for (Map.Entry<Object, Object> attribute : jarSection.getValue().entrySet()) {
+                // The digests belong to the dropped signatures
+                if (attribute.getKey().toString().toUpperCase(Locale.ROOT).endsWith("-DIGEST")) {
+                    continue;
+                }
+
+                if (section == null) {
+                    section = getSection(sections, jarSection.getKey());
+                }
+
+                section.putIfAbsent(attribute.getKey(), attribute.getValue());
+            }
+        }
+
+        Attributes mainAttributes = manifest.getMainAttributes();
+
+        for (Map.Entry<Object, Object> attribute : jarManifest.getMainAttributes().entrySet()) {
+            Attributes.Name name = (Attributes.Name) attribute.getKey();
+            String value = (String) attribute.getValue();
+
+            if (PACKAGE_ATTRIBUTES.contains(name)) {
+                for (String packageName : packageNames) {
+                    getSection(sections, packageName).putIfAbsent(name, value);
+                }
+            } else if (LIST_ATTRIBUTES.contains(name)) {
+                Set<String> values = new LinkedHashSet<>();
+                String previous = mainAttributes.getValue(name);
+
+                if (previous != null) {
+                    values.addAll(Arrays.asList(previous.trim().split("\\s+")));
+                }
+
+                values.addAll(Arrays.asList(value.trim().split("\\s+")));
+                values.remove("");
+
+                mainAttributes.put(name, String.join(" ", values));
+            } else if (!DROPPED_ATTRIBUTES.contains(name)) {
+                mainAttributes.putIfAbsent(name, value);
+            }
+        }
+    }
+
+    private static Attributes getSection(Map<String, Attributes> sections, String name) {
+        Attributes section = sections.get(name);
+
+        if (section == null) {
+            section = new Attributes();
+            sections.put(name, section);
+        }
+
+        return section;
+    }
+
+    private MergeRule.Action getAction(String entryName) {
+        for (MergeRule mergeRule : mergeRules) {
+            if (mergeRule.matches(entryName)) {
+                return mergeRule.getAction();
+            }
+        }
+
+        if (entryName.startsWith(SERVICES_PREFIX) && !entryName.endsWith("/")) {
+            return MergeRule.Action.CONCAT;
+        }
+
+        return MergeRule.Action.FIRST;
+    }
+
+    private void writeManifest(ZipOutputStream out) throws IOException {
+        // The manifest is written with these attributes first
+        Manifest mergedManifest = new Manifest();
+        Attributes attributes = mergedManifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Created-By", "appbundler");
+
+        if (multiRelease) {
+            attributes.putValue(MULTI_RELEASE, "true");
+        }
+
+        attributes.putAll(manifest.getMainAttributes());
+        mergedManifest.getEntries().putAll(manifest.getEntries());
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        mergedManifest.write(content);
+        compression.writeEntry(out, Jars.MANIFEST_NAME, content.toByteArray());
+    }
+
+    private void writeIndex(ZipOutputStream out, String jarName) throws IOException {
+        // Same format as written by jar -i
+        Set<String> packageNames = new LinkedHashSet<>();
+        for (String entryName : entries.keySet()) {
+            if (!entryName.startsWith("META-INF/")) {
+                int i = entryName.lastIndexOf('/');
+                packageNames.add((i == -1) ? entryName : entryName.substring(0, i));
+            }
+        }
+
+        StringBuilder index = new StringBuilder();
+        index.append("JarIndex-Version: 1.0\n\n");
+        index.append(jarName).append('\n');
+
+        for (String packageName : packageNames) {
+            index.append(packageName).append('\n');
+        }
+
+        index.append('\n');
+
+        compression.writeEntry(out, Jars.INDEX_NAME, index.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeConcatenated(ZipOutputStream out, List<ZipFile> zipFiles, String entryName)
+        throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        if (entryName.startsWith(SERVICES_PREFIX)) {
+            // Combine provider registrations, keeping the first of each
+            Set<String> providers = new LinkedHashSet<>();
+
+            for (ZipFile zipFile : zipFiles) {
+                ZipEntry zipEntry = zipFile.getEntry(entryName);
+
+                if (zipEntry != null) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        zipFile.getInputStream(zipEntry), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            int i = line.indexOf('#');
+                            String provider = ((i == -1) ? line : line.substring(0, i)).trim();
+
+                            if (provider.length() > 0) {
+                                providers.add(provider);
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (String provider : providers) {
+                content.write(provider.getBytes(StandardCharsets.UTF_8));
+                content.write('\n');
+            }
+        } else {
+            boolean endsWithLineBreak = true;
+
+            for (ZipFile zipFile : zipFiles) {
+                ZipEntry zipEntry = zipFile.getEntry(entryName);
+
+                if (zipEntry != null) {
+                    // Separate the parts with a line break
+                    if (!endsWithLineBreak) {
+                        content.write('\n');
+                    }
+
+                    ByteArrayOutputStream part = new ByteArrayOutputStream((int) Math.max(zipEntry.getSize(), 0));
+                    try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                        Jars.transfer(in, part);
+                    }
+
+                    part.writeTo(content);
+                    endsWithLineBreak = part.size() == 0 || part.toByteArray()[part.size() - 1] == '\n';
+                }
+            }
+        }
+
+        compression.writeEntry(out, entryName, content.toByteArray());
+    }
+}
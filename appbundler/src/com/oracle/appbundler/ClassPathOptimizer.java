@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.oracle.appbundler.classfile.ClassIndex;
+import com.oracle.appbundler.classfile.ClassLoadOrder;
+
+/**
+ * Orders the jars of a class path by how early they are needed at startup,
+ * so that the class loader probes fewer jars before it finds a class. The
+ * startup classes are predicted by walking the bytecode from the main class,
+ * optionally preceded by the classes recorded in a class load log. A jar
+ * that shadows an entry of another jar is kept before it, so every class and
+ * resource still resolves to the same jar; for service registrations, which
+ * are read from every jar, the order of all jars that contain them is kept.
+ * If the current order was not enforced, e.g. because the launcher listed
+ * the jars from its directory, which jar serves a shared entry was not
+ * defined, so every pair of jars that share entries is reported.
+ */
+class ClassPathOptimizer {
+    /**
+     * Two jars whose order is kept, although the startup analysis would have
+     * swapped them, or two jars that share entries while their current order
+     * is not enforced.
+     */
+    public static class Conflict {
+        public final File first;
+        public final File second;
+        public final int entryCount;
+        public final String example;
+        public final boolean ordered;
+
+        Conflict(File first, File second, int entryCount, String example, boolean ordered) {
+            this.first = first;
+            this.second = second;
+            this.entryCount = entryCount;
+            this.example = example;
+            this.ordered = ordered;
+        }
+
+        @Override
+        public String toString() {
+            if (!ordered) {
+                return "Placed " + first.getName() + " before " + second.getName() + ", so it now serves "
+                    + entryCount + " shared entries, e.g. " + example + "; their order was not defined before";
+            }
+
+            return "Kept " + first.getName() + " before " + second.getName() + " to preserve the resolution of "
+                + entryCount + " shared entries, e.g. " + example;
+        }
+    }
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private static class Shadowing {
+        final int first;
+        final int second;
+        int entryCount = 0;
+        String example = null;
+
+        Shadowing(int first, int second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    private final List<File> jars;
+    private final boolean ordered;
+
+    // Pairs of jars that must keep their order, keyed by both indices
+    private final Map<Long, Shadowing> shadowings = new LinkedHashMap<>();
+
+    private final List<Conflict> conflicts = new ArrayList<>();
+    private int referencedJarCount = 0;
+
+    /**
+     * Creates an optimizer for the given jars, in their current class path
+     * order. If <code>ordered</code> is false, that order was not enforced,
+     * and shared entries are resolved according to it from now on.
+     */
+    public ClassPathOptimizer(List<File> jars, boolean ordered) throws IOException {
+        this.jars = jars;
+        this.ordered = ordered;
+
+        Map<String, Integer> owners = new HashMap<>();
+
+        for (int i = 0; i < jars.size(); i++) {
+            try (ZipFile zipFile = new ZipFile(jars.get(i))) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String entryName = entry.getName();
+
+                    if (entry.isDirectory() || entryName.equals(Jars.MANIFEST_NAME)
+                        || entryName.equals(Jars.INDEX_NAME) || Jars.isSignatureFile(entryName)) {
+                        continue;
+                    }
+
+                    Integer previous = owners.get(entryName);
+
+                    if (previous == null) {
+                        owners.put(entryName, i);
+                    } else if (previous != i) {
+                        addShadowing(previous, i, entryName);
+
+                        // Service registrations are combined in class path order
+                        if (entryName.startsWith(SERVICES_PREFIX)) {
+                            owners.put(entryName, i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addShadowing(int first, int second, String entryName) {
+        long key = ((long) first << 32) | second;
+
+        Shadowing shadowing = shadowings.get(key);
+        if (shadowing == null) {
+            shadowing = new Shadowing(first, second);
+            shadowings.put(key, shadowing);
+        }
+
+        if (shadowing.example == null || entryName.endsWith(ClassIndex.CLASS_SUFFIX)
+            && !shadowing.example.endsWith(ClassIndex.CLASS_SUFFIX)) {
+            shadowing.example = entryName;
+        }
+
+        shadowing.entryCount++;
+    }
+
+    /**
+     * Returns the jars in startup order. Recorded classes, if any, are given
+     * in load order and take precedence over the predicted ones.
+     */
+    public List<File> optimize(String mainClassName, List<String> recordedClassNames) throws IOException {
+        int n = jars.size();
+
+        Map<File, Integer> indices = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indices.put(jars.get(i), i);
+        }
+
+        List<String> classNames = new ArrayList<>();
+        if (recordedClassNames != null) {
+            classNames.addAll(recordedClassNames);
+        }
+
+        // The rank of a jar is the position of the first class it serves
+        final long[] ranks = new long[n];
+        for (int i = 0; i < n; i++) {
+            ranks[i] = Integer.MAX_VALUE + (long) i;
+        }
+
+        try (ClassIndex classIndex = new ClassIndex(jars)) {
+            classNames.addAll(ClassLoadOrder.compute(classIndex, mainClassName));
+
+            int rank = 0;
+            for (String className : classNames) {
+                File jar = classIndex.getJar(className);
+
+                if (jar != null) {
+                    int i = indices.get(jar);
+
+                    if (ranks[i] >= Integer.MAX_VALUE) {
+                        ranks[i] = rank++;
+                    }
+                }
+            }
+
+            referencedJarCount = rank;
+        }
+
+        List<List<Integer>> predecessors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            predecessors.add(new ArrayList<>());
+        }
+
+        for (Shadowing shadowing : shadowings.values()) {
+            predecessors.get(shadowing.second).add(shadowing.first);
+
+            if (!ordered || ranks[shadowing.second] < ranks[shadowing.first]) {
+                conflicts.add(new Conflict(jars.get(shadowing.first), jars.get(shadowing.second),
+                    shadowing.entryCount, shadowing.example, ordered));
+            }
+        }
+
+        // A jar that shadows another is needed as early as the other one;
+        // shadowing jars always come earlier in the current order
+        long[] effectiveRanks = ranks.clone();
+        for (int i = n - 1; i >= 0; i--) {
+            for (int predecessor : predecessors.get(i)) {
+                effectiveRanks[predecessor] = Math.min(effectiveRanks[predecessor], effectiveRanks[i]);
+            }
+        }
+
+        // Place the jar with the lowest rank whose shadowing jars are placed
+        List<File> order = new ArrayList<>(n);
+        boolean[] placed = new boolean[n];
+
+        while (order.size() < n) {
+            int next = -1;
+
+            for (int i = 0; i < n; i++) {
+                if (!placed[i] && isPlaceable(i, predecessors, placed) && (next == -1
+                    || effectiveRanks[i] < effectiveRanks[next]
+                    || effectiveRanks[i] == effectiveRanks[next] && ranks[i] < ranks[next])) {
+                    next = i;
+                }
+            }
+
+            placed[next] = true;
+            order.add(jars.get(next));
+        }
+
+        return order;
+    }
+
+    private static boolean isPlaceable(int i, List<List<Integer>> predecessors, boolean[] placed) {
+        for (int predecessor : predecessors.get(i)) {
+            if (!placed[predecessor]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the pairs of jars that kept their order to preserve shadowing
+     * during the last optimization, or all pairs of jars that share entries
+     * if the current order was not enforced.
+     */
+    public List<Conflict> getConflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    /**
+     * Returns the number of jars that serve startup classes.
+     */
+    public int getReferencedJarCount() {
+        return referencedJarCount;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store of file contents shared by the builds on a host, keyed by the
+ * SHA-256 hash of the contents. Files are placed into a bundle by cloning
+ * or linking them out of the store, so that bundling the same runtime again
+ * mostly costs metadata operations.
+ * <p>
+ * An index maps source files, identified by path, size and modification
+ * time, to their hashes, so that unchanged sources are not read again. It
+ * also records when each object was last used; the least recently used
+ * objects are evicted once the store exceeds its size limit.
+ * <p>
+ * Objects are written to a temporary file and renamed into place, so
+ * concurrent builds at worst store the same object twice. Saving the index
+ * and evicting objects is serialized by a lock file. A build that finds an
+ * object evicted after looking it up stores it again.
+ */
+class ContentStore {
+    /**
+     * The hash of a source file and when its object was last used.
+     */
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String hash;
+        final boolean executable;
+        long lastUsed;
+
+        Entry(long size, long lastModified, String hash, boolean executable, long lastUsed) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.executable = executable;
+            this.lastUsed = lastUsed;
+        }
+
+        String getObjectName() {
+            // Hard links share permissions, so executables are stored separately
+            return executable ? hash + EXECUTABLE_SUFFIX : hash;
+        }
+    }
+
+    private static final String HEADER = "# appbundler store 1";
+    private static final String EXECUTABLE_SUFFIX = ".x";
+    private static final long TEMP_FILE_AGE = 24L * 60 * 60 * 1000;
+
+    private final File directory;
+    private final Path objectsPath;
+    private final Path tempPath;
+    private final File indexFile;
+    private final File lockFile;
+    private final long maximumSize;
+    private final CopyStrategy copyStrategy;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Entry> usedEntries = new ConcurrentHashMap<>();
+
+    public ContentStore(File directory, long maximumSize, CopyStrategy copyStrategy) throws IOException {
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+        this.copyStrategy = copyStrategy;
+
+        objectsPath = new File(directory, "objects").toPath();
+        tempPath = new File(directory, "tmp").toPath();
+        indexFile = new File(directory, "index");
+        lockFile = new File(directory, "lock");
+
+        Files.createDirectories(objectsPath);
+        Files.createDirectories(tempPath);
+
+        entries.putAll(loadIndex());
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the hash of the given regular file, adding it to the store if
+     * necessary.
+     */
+    public String hash(Path source) throws IOException {
+        return getEntry(source, false).hash;
+    }
+
+    /**
+     * Places the contents of the given regular file at the destination,
+     * adding them to the store first if necessary.
+     */
+    public void copy(Path source, Path destination) throws IOException {
+        Entry entry = getEntry(source, false);
+
+        try {
+            copyStrategy.copy(getObjectPath(entry), destination);
+        } catch (NoSuchFileException exception) {
+            // Evicted by another build since it was looked up
+            entry = getEntry(source, true);
+            copyStrategy.copy(getObjectPath(entry), destination);
+        }
+
+        entry.lastUsed = System.currentTimeMillis();
+        usedEntries.put(source.toAbsolutePath().toString(), entry);
+    }
+
+    private Entry getEntry(Path source, boolean reload) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        String key = source.toAbsolutePath().toString();
+
+        Entry entry = entries.get(key);
+        if (reload || entry == null || entry.size != attributes.size()
+            || entry.lastModified != attributes.lastModifiedTime().toMillis()
+            || !Files.exists(getObjectPath(entry), LinkOption.NOFOLLOW_LINKS)) {
+            entry = store(source, attributes);
+            entries.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    private Entry store(Path source, BasicFileAttributes attributes) throws IOException {
+        Path tempFile = Files.createTempFile(tempPath, null, null);
+        MessageDigest digest = BundleManifest.newDigest();
+
+        try {
+            try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+                Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            // Keep the permissions of the source; temporary files are private
+            boolean executable;
+            try {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(source);
+                Files.setPosixFilePermissions(tempFile, permissions);
+                executable = permissions.contains(PosixFilePermission.OWNER_EXECUTE);
+            } catch (UnsupportedOperationException exception) {
+                executable = false;
+            }
+
+            Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                BundleManifest.toHex(digest.digest()), executable, System.currentTimeMillis());
+
+            Path objectPath = getObjectPath(entry);
+            if (!Files.exists(objectPath, LinkOption.NOFOLLOW_LINKS)) {
+                Files.createDirectories(objectPath.getParent());
+                Files.move(tempFile, objectPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            return entry;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path getObjectPath(Entry entry) {
+        return objectsPath.resolve(entry.hash.substring(0, 2)).resolve(entry.getObjectName());
+    }
+
+    /**
+     * Records the objects used by this build in the index and evicts the
+     * least recently used objects if the store is too large.
+     */
+    public void close() throws IOException {
+        synchronized (ContentStore.class) {
+            try (RandomAccessFile file = new RandomAccessFile(lockFile, "rw")) {
+                FileLock lock = file.getChannel().lock();
+
+                try {
+                    // Merge with the builds that completed since the index was loaded
+                    Map<String, Entry> index = loadIndex();
+
+                    for (Map.Entry<String, Entry> usedEntry : usedEntries.entrySet()) {
+                        Entry entry = usedEntry.getValue();
+                        Entry previous = index.get(usedEntry.getKey());
+
+                        if (previous == null || previous.lastUsed <= entry.lastUsed) {
+                            index.put(usedEntry.getKey(), entry);
+                        }
+                    }
+
+                    if (maximumSize > 0) {
+                        evict(index);
+                    }
+
+                    saveIndex(index);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private void evict(Map<String, Entry> index) throws IOException {
+        // Find the time each object was last used; objects of failed builds
+        // that never made it into the index count as used when written
+        Map<String, Long> lastUsed = new HashMap<>();
+        for (Entry entry : index.values()) {
+            Long time = lastUsed.get(entry.getObjectName());
+            lastUsed.put(entry.getObjectName(), (time == null) ? entry.lastUsed : Math.max(time, entry.lastUsed));
+        }
+
+        final Map<Path, Long> times = new HashMap<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(objectsPath)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> objects = Files.newDirectoryStream(prefix)) {
+                    for (Path object : objects) {
+                        BasicFileAttributes attributes = Files.readAttributes(object, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                        Long time = lastUsed.get(object.getFileName().toString());
+
+                        times.put(object, (time == null) ? attributes.lastModifiedTime().toMillis() : time);
+                        sizes.put(object, attributes.size());
+                        totalSize += attributes.size();
+                    }
+                }
+            }
+        }
+
+        // Remove temporary files left behind by builds that were killed
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(tempPath)) {
+            for (Path tempFile : tempFiles) {
+                if (System.currentTimeMillis() - Files.getLastModifiedTime(tempFile).toMillis() > TEMP_FILE_AGE) {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+
+        if (totalSize <= maximumSize) {
+            return;
+        }
+
+        List<Path> objects = new ArrayList<>(times.keySet());
+        Collections.sort(objects, new Comparator<Path>() {
+            @Override
+            public int compare(Path path1, Path path2) {
+                return Long.compare(times.get(path1), times.get(path2));
+            }
+        });
+
+        int evictedCount = 0;
+        long evictedSize = 0;
+
+        for (Path object : objects) {
+            if (totalSize <= maximumSize) {
+                break;
+            }
+
+            Files.deleteIfExists(object);
+            lastUsed.remove(object.getFileName().toString());
+
+            totalSize -= sizes.get(object);
+            evictedSize += sizes.get(object);
+            evictedCount++;
+        }
+
+        // Drop the index entries of evicted objects
+        for (Iterator<Entry> iterator = index.values().iterator(); iterator.hasNext(); ) {
+            if (!lastUsed.containsKey(iterator.next().getObjectName())) {
+                iterator.remove();
+            }
+        }
+
+        System.out.println("Evicted " + evictedCount + " files (" + evictedSize + " bytes) from " + directory);
+    }
+
+    private Map<String, Entry> loadIndex() throws IOException {
+        Map<String, Entry> index = new HashMap<>();
+
+        if (!indexFile.isFile()) {
+            return index;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (!HEADER.equals(line)) {
+                // Unknown format; start over
+                return index;
+            }
+
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 6);
+                if (fields.length != 6) {
+                    throw new IOException("Invalid store index entry: " + line);
+                }
+
+                index.put(fields[5], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0],
+                    fields[3].equals("x"), Long.parseLong(fields[4])));
+            }
+        } catch (NumberFormatException exception) {
+            throw new IOException("Invalid store index " + indexFile, exception);
+        }
+
+        return index;
+    }
+
+    private void saveIndex(Map<String, Entry> index) throws IOException {
+        Path tempFile = Files.createTempFile(tempPath, "index", null);
+
+        try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+
+            for (Map.Entry<String, Entry> mapEntry : index.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.write(entry.hash);
+                out.write('\t');
+                out.write(Long.toString(entry.size));
+                out.write('\t');
+                out.write(Long.toString(entry.lastModified));
+                out.write('\t');
+                out.write(entry.executable ? "x" : "-");
+                out.write('\t');
+                out.write(Long.toString(entry.lastUsed));
+                out.write('\t');
+                out.write(mapEntry.getKey());
+                out.write('\n');
+            }
+        }
+
+        Files.move(tempFile, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
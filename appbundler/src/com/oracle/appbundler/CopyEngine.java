@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the file operations that populate an app bundle on a pool of worker
+ * threads. Operations are submitted from a single thread; operations on the
+ * same destination run in submission order, so the last one still wins.
+ */
+class CopyEngine implements Closeable {
+    /**
+     * A file operation run by the engine.
+     */
+    interface Operation {
+        void run() throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+    private final Set<File> directories = new HashSet<>();
+    private final Map<File, ForkJoinTask<?>> pending = new HashMap<>();
+
+    private volatile Throwable failure = null;
+
+    public CopyEngine(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid thread count.");
+        }
+
+        // A single thread runs everything on the calling thread
+        pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+    }
+
+    public void createDirectories(File directory) {
+        if (directories.add(directory)) {
+            directory.mkdirs();
+        }
+    }
+
+    public void submit(File destination, Operation operation) throws IOException {
+        // Attribute the operation to the phase that submitted it
+        final BuildMetrics.Phase phase = BuildMetrics.getActivePhase();
+
+        if (pool == null) {
+            run(phase, operation);
+            return;
+        }
+
+        if (failure != null) {
+            return;
+        }
+
+        final ForkJoinTask<?> previous = pending.get(destination);
+
+        pending.put(destination, pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (previous != null) {
+                    previous.quietlyJoin();
+                }
+
+                if (failure == null) {
+                    try {
+                        CopyEngine.run(phase, operation);
+                    } catch (IOException | RuntimeException | Error exception) {
+                        fail(exception);
+                    }
+                }
+            }
+        }));
+    }
+
+    public void await() throws IOException {
+        for (ForkJoinTask<?> task : pending.values()) {
+            task.quietlyJoin();
+        }
+
+        pending.clear();
+
+        Throwable throwable = failure;
+        if (throwable instanceof IOException) {
+            throw (IOException) throwable;
+        } else if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        } else if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            // Cancel queued operations and let running ones finish
+            pool.shutdownNow();
+            pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void run(BuildMetrics.Phase phase, Operation operation) throws IOException {
+        if (phase == null) {
+            operation.run();
+        } else {
+            phase.run(operation);
+        }
+    }
+
+    private synchronized void fail(Throwable throwable) {
+        if (failure == null) {
+            failure = throwable;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies file contents through a pipeline of stages connected by bounded
+ * queues. The read stage opens a file and reads it in chunks, the write
+ * stage writes chunks at their positions, so that the chunks of one file
+ * can be written in parallel while it is still being read, and the metadata
+ * stage closes the file and sets its permissions. Each stage has its own
+ * threads, and the buffers in flight are limited by a memory budget, which
+ * stalls the read stage until the write stage catches up.
+ */
+class CopyPipeline implements Closeable {
+    /**
+     * The outcome of a copy.
+     */
+    static class Result {
+        public final long size;
+        public final String hash;
+
+        Result(long size, String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    private static class Job {
+        final Path source;
+        final Path destination;
+        final MessageDigest digest;
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+
+        // The read stage and every chunk in flight hold the job open
+        final AtomicInteger pendingCount = new AtomicInteger(1);
+
+        FileChannel out = null;
+        Set<PosixFilePermission> permissions = null;
+        long size = 0;
+        volatile Throwable failure = null;
+
+        Job(Path source, Path destination, MessageDigest digest) {
+            this.source = source;
+            this.destination = destination;
+            this.digest = digest;
+        }
+
+        void fail(Throwable exception) {
+            if (failure == null) {
+                failure = exception;
+            }
+        }
+    }
+
+    private static class Chunk {
+        final Job job;
+        final ByteBuffer buffer;
+        final long position;
+
+        Chunk(Job job, ByteBuffer buffer, long position) {
+            this.job = job;
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    private final int chunkSize;
+    private final Semaphore budget;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final Set<Job> jobs = ConcurrentHashMap.newKeySet();
+
+    private final Stage<Job> readStage;
+    private final Stage<Chunk> writeStage;
+    private final Stage<Job> metadataStage;
+
+    public CopyPipeline(IOProfile profile, long memoryBudget) {
+        chunkSize = profile.getChunkSize();
+
+        int bufferCount = (int) Math.max(2, Math.min(memoryBudget / chunkSize, Integer.MAX_VALUE));
+        budget = new Semaphore(bufferCount);
+
+        readStage = new Stage<>("read", profile.getReadThreads(), profile.getFileCount(), this::read);
+        writeStage = new Stage<>("write", profile.getWriteThreads(), bufferCount, this::write);
+        metadataStage = new Stage<>("metadata", profile.getMetadataThreads(), profile.getFileCount(),
+            this::complete);
+    }
+
+    /**
+     * Copies a regular file, replacing any existing file, and waits for the
+     * copy to complete. The SHA-256 hash of the contents is computed as they
+     * pass through if requested.
+     */
+    public Result copy(Path source, Path destination, boolean hash) throws IOException {
+        Job job = new Job(source, destination, hash ? BundleManifest.newDigest() : null);
+        jobs.add(job);
+
+        try {
+            readStage.put(job);
+            return job.future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        readStage.close();
+        writeStage.close();
+        metadataStage.close();
+
+        // Release callers whose files did not make it through
+        for (Job job : jobs) {
+            closeQuietly(job.out);
+            job.future.completeExceptionally(new IOException("Copy of " + job.source + " was cancelled."));
+        }
+
+        jobs.clear();
+    }
+
+    private void read(Job job) throws InterruptedException {
+        ByteBuffer buffer = null;
+
+        try (FileChannel in = FileChannel.open(job.source, StandardOpenOption.READ)) {
+            try {
+                job.permissions = Files.getPosixFilePermissions(job.source);
+            } catch (UnsupportedOperationException exception) {
+                // Not a POSIX file system
+            }
+
+            // The destination may be a link to another file, so it is replaced
+            Files.deleteIfExists(job.destination);
+            job.out = FileChannel.open(job.destination, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+            boolean end = false;
+            while (!end && job.failure == null) {
+                buffer = takeBuffer();
+
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer) == -1) {
+                        end = true;
+                        break;
+                    }
+                }
+
+                if (buffer.position() == 0) {
+                    break;
+                }
+
+                buffer.flip();
+
+                if (job.digest != null) {
+                    job.digest.update(buffer.duplicate());
+                }
+
+                // The buffer belongs to the write stage once it is queued
+                long position = job.size;
+                job.size += buffer.remaining();
+
+                job.pendingCount.incrementAndGet();
+                writeStage.put(new Chunk(job, buffer, position));
+                buffer = null;
+            }
+        } catch (InterruptedException exception) {
+            throw exception;
+        } catch (Throwable exception) {
+            // Any failure, including running out of memory for buffers, fails
+            // the job rather than the stage thread
+            job.fail(exception);
+        } finally {
+            if (buffer != null) {
+                releaseBuffer(buffer);
+            }
+        }
+
+        release(job);
+    }
+
+    private void write(Chunk chunk) throws InterruptedException {
+        Job job = chunk.job;
+
+        try {
+            if (job.failure == null) {
+                long position = chunk.position;
+
+                while (chunk.buffer.hasRemaining()) {
+                    position += job.out.write(chunk.buffer, position);
+                }
+            }
+        } catch (Throwable exception) {
+            job.fail(exception);
+        } finally {
+            releaseBuffer(chunk.buffer);
+        }
+
+        release(job);
+    }
+
+    private void complete(Job job) {
+        try {
+            if (job.out != null) {
+                job.out.close();
+            }
+
+            // Restore the executable bits and other permissions of the source
+            if (job.failure == null && job.permissions != null) {
+                Files.setPosixFilePermissions(job.destination, job.permissions);
+            }
+        } catch (Throwable exception) {
+            job.fail(exception);
+        }
+
+        jobs.remove(job);
+
+        if (job.failure == null) {
+            job.future.complete(new Result(job.size,
+                (job.digest == null) ? null : BundleManifest.toHex(job.digest.digest())));
+        } else {
+            job.future.completeExceptionally(job.failure);
+        }
+    }
+
+    private void release(Job job) throws InterruptedException {
+        if (job.pendingCount.decrementAndGet() == 0) {
+            metadataStage.put(job);
+        }
+    }
+
+    private ByteBuffer takeBuffer() throws InterruptedException {
+        budget.acquire();
+
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+
+        try {
+            return ByteBuffer.allocateDirect(chunkSize);
+        } catch (Throwable exception) {
+            budget.release();
+            throw exception;
+        }
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+        budget.release();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException exception) {
+                // The copy has failed already
+            }
+        }
+    }
+
+    /**
+     * A queue and the threads that take items from it.
+     */
+    private static class Stage<T> {
+        interface Handler<T> {
+            void handle(T item) throws InterruptedException;
+        }
+
+        private final BlockingQueue<T> queue;
+        private final List<Thread> threads = new ArrayList<>();
+
+        Stage(String name, int threadCount, int capacity, final Handler<T> handler) {
+            queue = new ArrayBlockingQueue<>(capacity);
+
+            for (int i = 0; i < threadCount; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        while (true) {
+                            handler.handle(queue.take());
+                        }
+                    } catch (InterruptedException exception) {
+                        // The pipeline is closed
+                    }
+                }, "appbundler-" + name + "-" + i);
+
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        void put(T item) throws InterruptedException {
+            queue.put(item);
+        }
+
+        void close() {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            queue.clear();
+        }
+    }
+}
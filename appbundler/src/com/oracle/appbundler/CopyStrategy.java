@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Strategies for placing a file into an app bundle. Every strategy falls
+ * back to a regular copy when the file cannot be linked or cloned.
+ */
+enum CopyStrategy {
+    /** Always copy the file contents. */
+    COPY("copy"),
+
+    /** Create a hard link to the source file. */
+    HARDLINK("hardlink"),
+
+    /** Create a copy-on-write clone of the source file. */
+    REFLINK_OR_COPY("reflink-or-copy"),
+
+    /** Clone the source file if possible, otherwise hard link it. */
+    AUTO("auto");
+
+    private static final boolean MAC_OS = System.getProperty("os.name").startsWith("Mac");
+    private static final int BUFFER_SIZE = 65536;
+
+    // Messages of cp(1) that mean cloning is not supported at all, rather than
+    // that it failed for a single file, e.g. because the disk is full
+    private static final String[] UNSUPPORTED_CLONE_MESSAGES = {
+        "not supported", "cross-device link", "inappropriate ioctl", "invalid argument",
+        "unrecognized option", "invalid option", "illegal option"
+    };
+
+    // Whether cloning is supported between a pair of file stores, keyed by
+    // their names; pairs that have not been probed yet are absent
+    private static final Map<String, Boolean> cloneSupport = new ConcurrentHashMap<>();
+    private static volatile boolean cloneCommandAvailable = true;
+
+    private final String value;
+
+    private CopyStrategy(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static CopyStrategy forValue(String value) {
+        for (CopyStrategy strategy : values()) {
+            if (strategy.value.equalsIgnoreCase(value)) {
+                return strategy;
+            }
+        }
+
+        throw new BuildException("Invalid copy strategy: " + value);
+    }
+
+    /**
+     * Places a regular file or symbolic link at the destination, replacing
+     * any existing file.
+     */
+    public void copy(Path source, Path destination) throws IOException {
+        if (this != COPY && !Files.isSymbolicLink(source)) {
+            if ((this == REFLINK_OR_COPY || this == AUTO) && clone(source, destination, false)) {
+                return;
+            }
+
+            if ((this == HARDLINK || this == AUTO) && link(source, destination)) {
+                return;
+            }
+        }
+
+        Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Clones a directory tree into a destination that does not exist yet,
+     * starting a single process for the whole tree. Returns false if the tree
+     * has to be placed file by file instead, e.g. because this strategy does
+     * not clone or the file systems do not support it.
+     */
+    public boolean cloneTree(Path source, Path destination) {
+        if ((this != REFLINK_OR_COPY && this != AUTO) || Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+
+        return clone(source, destination, true);
+    }
+
+    /**
+     * Copies the contents of a regular file, returning their SHA-256 hash,
+     * which is computed as the contents pass through.
+     */
+    public static String copyAndHash(Path source, Path destination) throws IOException {
+        MessageDigest digest = BundleManifest.newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        Files.deleteIfExists(destination);
+
+        try (InputStream in = Files.newInputStream(source);
+            OutputStream out = Files.newOutputStream(destination)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+
+        // Keep the permissions of the source, as a plain copy does
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(source);
+            Files.setPosixFilePermissions(destination, permissions);
+        } catch (UnsupportedOperationException exception) {
+            // Not a POSIX file system
+        }
+
+        return BundleManifest.toHex(digest.digest());
+    }
+
+    private static boolean link(Path source, Path destination) {
+        try {
+            Files.deleteIfExists(destination);
+            Files.createLink(destination, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException exception) {
+            // e.g. source and destination are on different file systems
+            return false;
+        }
+    }
+
+    private static boolean clone(Path source, Path destination, boolean recursive) {
+        if (!cloneCommandAvailable) {
+            return false;
+        }
+
+        String key;
+        try {
+            FileStore sourceStore = Files.getFileStore(source);
+            FileStore destinationStore = Files.getFileStore(destination.getParent());
+            key = sourceStore.name() + " -> " + destinationStore.name();
+        } catch (IOException exception) {
+            return false;
+        }
+
+        Boolean supported = cloneSupport.get(key);
+        if (supported == null) {
+            // Probe each pair of file stores with a single clone, so that the
+            // workers do not all start a process only to find it unsupported
+            synchronized (cloneSupport) {
+                supported = cloneSupport.get(key);
+
+                if (supported == null) {
+                    String error = runClone(source, destination, recursive);
+
+                    if (error == null) {
+                        cloneSupport.put(key, Boolean.TRUE);
+                        return true;
+                    }
+
+                    if (isUnsupported(error)) {
+                        cloneSupport.put(key, Boolean.FALSE);
+                    }
+
+                    return false;
+                }
+            }
+        }
+
+        // A failure on a supported pair, e.g. a full disk, only affects this file
+        return supported && runClone(source, destination, recursive) == null;
+    }
+
+    /**
+     * Clones a file or directory tree with cp(1), returning null on success
+     * or the output of cp otherwise.
+     */
+    private static String runClone(Path source, Path destination, boolean recursive) {
+        // The JDK has no API for clonefile(2) or FICLONE, so this is delegated to cp(1)
+        List<String> command = new ArrayList<>();
+        command.add("cp");
+        command.add(MAC_OS ? "-c" : "--reflink=always");
+
+        if (recursive) {
+            // Symbolic links are copied as links
+            command.add("-R");
+        }
+
+        command.add(source.toString());
+        command.add(destination.toString());
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.environment().put("LC_ALL", "C");
+        processBuilder.redirectErrorStream(true);
+
+        try {
+            if (!recursive) {
+                Files.deleteIfExists(destination);
+            }
+        } catch (IOException exception) {
+            return exception.toString();
+        }
+
+        try {
+            Process process = processBuilder.start();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputStream in = process.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    output.write(buffer, 0, n);
+                }
+            }
+
+            return (process.waitFor() == 0) ? null : output.toString();
+        } catch (IOException exception) {
+            cloneCommandAvailable = false;
+            return exception.toString();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return exception.toString();
+        }
+    }
+
+    private static boolean isUnsupported(String error) {
+        String message = error.toLowerCase(Locale.ROOT);
+
+        for (String unsupportedMessage : UNSUPPORTED_CLONE_MESSAGES) {
+            if (message.contains(unsupportedMessage)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds class path and library path files with the same content. Only
+ * files of equal size are hashed, so files without duplicates are not read.
+ */
+class Deduplicator {
+    /**
+     * What to do with a file added to the bundle.
+     */
+    enum Result {
+        /** Write the file. */
+        WRITE,
+
+        /** The content is already at the destination or will be linked there. */
+        DONE,
+
+        /** Leave the file out of the bundle. */
+        OMIT
+    }
+
+    /**
+     * A file placed into the bundle.
+     */
+    static class Placement {
+        final File source;
+        final File destination;
+        final long size;
+
+        Placement(File source, File destination, long size) {
+            this.source = source;
+            this.destination = destination;
+            this.size = size;
+        }
+    }
+
+    private final DuplicatePolicy policy;
+
+    private final Map<File, Placement> placements = new HashMap<>();
+    private final Map<Long, List<Placement>> placementsBySize = new HashMap<>();
+    private final Map<File, String> hashes = new HashMap<>();
+    private final Map<Placement, Placement> links = new LinkedHashMap<>();
+
+    private int duplicateCount = 0;
+    private long duplicateSize = 0;
+
+    public Deduplicator(DuplicatePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a file, returning whether it should be written. Files that may be
+     * omitted are left out of the bundle if the policy is to skip them.
+     */
+    public Result add(File source, File destination, boolean omittable) throws IOException {
+        Path sourcePath = source.toPath();
+        if (!Files.isRegularFile(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            return Result.WRITE;
+        }
+
+        long size = Files.readAttributes(sourcePath, BasicFileAttributes.class).size();
+        Placement placement = new Placement(source, destination, size);
+
+        // Same destination, i.e. the same file name from another source
+        Placement previous = placements.get(destination);
+        if (previous != null && !previous.source.equals(source)) {
+            if (isIdentical(previous, placement)) {
+                System.out.println("Skipping " + source + ": same content as " + previous.source);
+                countDuplicate(size);
+                return Result.DONE;
+            }
+
+            System.err.println("Warning: " + source + " replaces " + previous.source + " as "
+                + destination.getName() + ".");
+            remove(previous);
+        } else if (previous != null) {
+            return Result.DONE;
+        }
+
+        // Same content at another destination
+        Placement original = null;
+        List<Placement> candidates = placementsBySize.get(size);
+
+        if (candidates != null) {
+            for (Placement candidate : candidates) {
+                if (isIdentical(candidate, placement)) {
+                    original = candidate;
+                    break;
+                }
+            }
+        }
+
+        if (original == null || policy == DuplicatePolicy.COPY) {
+            if (original != null) {
+                System.out.println("Duplicate content: " + source + " is identical to " + original.source);
+                countDuplicate(size);
+            }
+
+            placements.put(destination, placement);
+            add(placement);
+
+            return Result.WRITE;
+        }
+
+        countDuplicate(size);
+
+        if (policy == DuplicatePolicy.SKIP && omittable) {
+            System.out.println("Skipping " + source + ": same content as " + original.source);
+            return Result.OMIT;
+        }
+
+        System.out.println("Linking " + destination.getName() + " to " + original.destination.getName()
+            + ": same content");
+        placements.put(destination, placement);
+        links.put(placement, original);
+
+        return Result.DONE;
+    }
+
+    /**
+     * Returns the duplicates to be linked to their originals once the
+     * originals have been written.
+     */
+    public Map<Placement, Placement> getLinks() {
+        return links;
+    }
+
+    /**
+     * Returns true if the given file has not been replaced by another file
+     * with the same name.
+     */
+    public boolean isPlaced(Placement placement) {
+        return placements.get(placement.destination) == placement;
+    }
+
+    public String getHash(File source) throws IOException {
+        String hash = hashes.get(source);
+
+        if (hash == null) {
+            hash = BundleManifest.hash(source);
+            hashes.put(source, hash);
+        }
+
+        return hash;
+    }
+
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    public long getDuplicateSize() {
+        return duplicateSize;
+    }
+
+    private boolean isIdentical(Placement placement1, Placement placement2) throws IOException {
+        return placement1.size == placement2.size
+            && getHash(placement1.source).equals(getHash(placement2.source));
+    }
+
+    private void add(Placement placement) {
+        List<Placement> candidates = placementsBySize.get(placement.size);
+
+        if (candidates == null) {
+            candidates = new ArrayList<>();
+            placementsBySize.put(placement.size, candidates);
+        }
+
+        candidates.add(placement);
+    }
+
+    private void remove(Placement placement) {
+        List<Placement> candidates = placementsBySize.get(placement.size);
+
+        if (candidates != null) {
+            candidates.remove(placement);
+        }
+
+        links.remove(placement);
+    }
+
+    private void countDuplicate(long size) {
+        duplicateCount++;
+        duplicateSize += size;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Policies for class path and library path files with the same content
+ * from different sources.
+ */
+enum DuplicatePolicy {
+    /** Copy every file and report the duplicates. */
+    COPY("copy"),
+
+    /** Write each content once and hard link the other files to it. */
+    HARDLINK("hardlink"),
+
+    /**
+     * Leave duplicate class path entries out of the bundle and the class
+     * path; duplicate libraries are hard linked, as they are loaded by name.
+     */
+    SKIP("skip");
+
+    private final String value;
+
+    private DuplicatePolicy(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static DuplicatePolicy forValue(String value) {
+        for (DuplicatePolicy policy : values()) {
+            if (policy.value.equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+
+        throw new BuildException("Invalid duplicate policy: " + value);
+    }
+}
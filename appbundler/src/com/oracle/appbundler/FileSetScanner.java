@@ -0,0 +1,386 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * Scans file sets, passing each included file on as soon as it is found
+ * rather than once the whole tree has been scanned. Patterns are matched
+ * as by {@link DirectoryScanner}, and files are passed on in the sorted order
+ * in which it returns them; file sets with selectors are left to it.
+ * <p>
+ * If a cache directory is given, the included files of each file set are
+ * stored together with the modification times of the directories that were
+ * scanned. As adding, removing or renaming a file changes the modification
+ * time of its directory, an unchanged tree is then only checked with one
+ * <code>stat</code> per directory instead of being listed and matched again.
+ */
+class FileSetScanner {
+    /**
+     * Receives the included files of a file set.
+     */
+    interface Visitor {
+        void visitFile(String name) throws IOException;
+    }
+
+    private static final String HEADER = "# appbundler scan 2";
+
+    // Directories modified this recently may still change within the
+    // resolution of their modification time
+    private static final long RACY_INTERVAL = 2000;
+
+    private final Project project;
+    private final File cacheDirectory;
+
+    public FileSetScanner(Project project, File cacheDirectory) {
+        this.project = project;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public void scan(FileSet fileSet, Visitor visitor) throws IOException {
+        File directory = fileSet.getDir(project);
+
+        if (fileSet.hasSelectors() || directory == null || !directory.isDirectory()) {
+            // Also reports missing directories the way Ant does
+            for (String name : fileSet.getDirectoryScanner(project).getIncludedFiles()) {
+                visitor.visitFile(name);
+            }
+
+            return;
+        }
+
+        boolean caseSensitive = fileSet.isCaseSensitive();
+        boolean followSymlinks = fileSet.isFollowSymlinks();
+
+        List<String> includes = normalize(fileSet.mergeIncludes(project));
+        if (includes.isEmpty()) {
+            includes.add(SelectorUtils.DEEP_TREE_MATCH);
+        }
+
+        List<String> excludes = normalize(fileSet.mergeExcludes(project));
+        if (fileSet.getDefaultexcludes()) {
+            excludes.addAll(normalize(DirectoryScanner.getDefaultExcludes()));
+        }
+
+        File cacheFile = null;
+        if (cacheDirectory != null) {
+            StringBuilder key = new StringBuilder();
+            key.append(directory.getCanonicalPath()).append('\n');
+            key.append(caseSensitive).append('\n');
+            key.append(followSymlinks).append('\n');
+
+            for (String include : includes) {
+                key.append('+').append(include).append('\n');
+            }
+
+            for (String exclude : excludes) {
+                key.append('-').append(exclude).append('\n');
+            }
+
+            cacheFile = new File(cacheDirectory, BundleManifest.hash(key.toString().getBytes(StandardCharsets.UTF_8)));
+
+            List<String> names = loadCache(cacheFile, directory);
+            if (names != null) {
+                for (String name : names) {
+                    visitor.visitFile(name);
+                }
+
+                return;
+            }
+        }
+
+        Scan scan = new Scan(directory.toPath(), includes, excludes, caseSensitive, followSymlinks, visitor);
+        scan.walk(directory.toPath(), Files.readAttributes(directory.toPath(), BasicFileAttributes.class),
+            new ArrayList<>());
+
+        if (cacheFile != null && !scan.racy) {
+            saveCache(cacheFile, scan);
+        }
+    }
+
+    private static List<String> normalize(String[] patterns) {
+        List<String> normalizedPatterns = new ArrayList<>();
+
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                // Same as DirectoryScanner.normalizePattern()
+                String normalizedPattern = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+                if (normalizedPattern.endsWith(File.separator)) {
+                    normalizedPattern += SelectorUtils.DEEP_TREE_MATCH;
+                }
+
+                normalizedPatterns.add(normalizedPattern);
+            }
+        }
+
+        return normalizedPatterns;
+    }
+
+    /**
+     * Walks a tree, recording the directories it enters and the files it
+     * passes on.
+     */
+    private static class Scan {
+        final Path root;
+        final List<String> includes;
+        final List<String> excludes;
+        final boolean caseSensitive;
+        final LinkOption[] linkOptions;
+        final Visitor visitor;
+        final long startTime = System.currentTimeMillis();
+
+        final List<String> directoryNames = new ArrayList<>();
+        final List<Long> directoryTimes = new ArrayList<>();
+        final List<String> fileNames = new ArrayList<>();
+        boolean racy = false;
+
+        Scan(Path root, List<String> includes, List<String> excludes, boolean caseSensitive,
+            boolean followSymlinks, Visitor visitor) {
+            this.root = root;
+            this.includes = includes;
+            this.excludes = excludes;
+            this.caseSensitive = caseSensitive;
+            this.linkOptions = followSymlinks ? new LinkOption[0] : new LinkOption[] {LinkOption.NOFOLLOW_LINKS};
+            this.visitor = visitor;
+        }
+
+        /**
+         * Walks the given directory. Its entries are sorted by name, with a
+         * separator appended to the names of directories, so the files of the
+         * whole tree are visited in the order of their sorted relative names.
+         */
+        void walk(Path directory, BasicFileAttributes attributes, List<Object> ancestorKeys) throws IOException {
+            String name = root.relativize(directory).toString();
+
+            if (name.length() > 0 && (contentsExcluded(name) || !couldHoldIncluded(name))) {
+                return;
+            }
+
+            // Skip symbolic link loops
+            Object key = attributes.fileKey();
+            if (key != null && ancestorKeys.contains(key)) {
+                return;
+            }
+
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            directoryNames.add(name);
+            directoryTimes.add(lastModified);
+            racy |= startTime - lastModified < RACY_INTERVAL;
+
+            List<Entry> entries = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    BasicFileAttributes entryAttributes;
+
+                    try {
+                        entryAttributes = Files.readAttributes(path, BasicFileAttributes.class, linkOptions);
+                    } catch (NoSuchFileException exception) {
+                        // A broken link, or a file deleted meanwhile
+                        continue;
+                    }
+
+                    entries.add(new Entry(path, entryAttributes));
+                }
+            } catch (NoSuchFileException exception) {
+                return;
+            }
+
+            Collections.sort(entries);
+
+            ancestorKeys.add(key);
+
+            for (Entry entry : entries) {
+                if (entry.attributes.isDirectory()) {
+                    walk(entry.path, entry.attributes, ancestorKeys);
+                } else if (entry.attributes.isRegularFile()) {
+                    // Not followed links are skipped, as by DirectoryScanner
+                    String fileName = root.relativize(entry.path).toString();
+
+                    if (isIncluded(fileName) && !isExcluded(fileName)) {
+                        fileNames.add(fileName);
+                        visitor.visitFile(fileName);
+                    }
+                }
+            }
+
+            ancestorKeys.remove(ancestorKeys.size() - 1);
+        }
+
+        private boolean isIncluded(String name) {
+            for (String include : includes) {
+                if (SelectorUtils.matchPath(include, name, caseSensitive)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean isExcluded(String name) {
+            for (String exclude : excludes) {
+                if (SelectorUtils.matchPath(exclude, name, caseSensitive)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean couldHoldIncluded(String name) {
+            for (String include : includes) {
+                if (SelectorUtils.matchPatternStart(include, name, caseSensitive)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean contentsExcluded(String name) {
+            String suffix = File.separator + SelectorUtils.DEEP_TREE_MATCH;
+
+            for (String exclude : excludes) {
+                if (exclude.endsWith(suffix) && SelectorUtils.matchPath(
+                    exclude.substring(0, exclude.length() - suffix.length()), name, caseSensitive)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A directory entry, ordered as its path sorts among the files of the
+     * tree.
+     */
+    private static class Entry implements Comparable<Entry> {
+        final Path path;
+        final BasicFileAttributes attributes;
+        final String sortKey;
+
+        Entry(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.attributes = attributes;
+
+            String name = path.getFileName().toString();
+            sortKey = attributes.isDirectory() ? name + File.separator : name;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return sortKey.compareTo(other.sortKey);
+        }
+    }
+
+    /**
+     * Returns the included files recorded in the given cache file, or null
+     * if any of the scanned directories has changed since.
+     */
+    private static List<String> loadCache(File cacheFile, File directory) throws IOException {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        List<String> names = new ArrayList<>();
+
+        try (BufferedReader in = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("F\t")) {
+                    names.add(line.substring(2));
+                } else if (line.startsWith("D\t")) {
+                    int i = line.indexOf('\t', 2);
+                    long lastModified = Long.parseLong(line.substring(2, i));
+
+                    Path scannedDirectory = directory.toPath().resolve(line.substring(i + 1));
+                    if (!Files.isDirectory(scannedDirectory)
+                        || Files.getLastModifiedTime(scannedDirectory).toMillis() != lastModified) {
+                        return null;
+                    }
+                } else {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException | NoSuchFileException exception) {
+            return null;
+        }
+
+        return names;
+    }
+
+    private void saveCache(File cacheFile, Scan scan) throws IOException {
+        Files.createDirectories(cacheDirectory.toPath());
+
+        Path tempFile = Files.createTempFile(cacheDirectory.toPath(), null, null);
+
+        try {
+            try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                out.write(HEADER);
+                out.write('\n');
+
+                for (int i = 0; i < scan.directoryNames.size(); i++) {
+                    out.write("D\t" + scan.directoryTimes.get(i) + "\t" + scan.directoryNames.get(i) + "\n");
+                }
+
+                for (String name : scan.fileNames) {
+                    out.write("F\t" + name + "\n");
+                }
+            }
+
+            Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
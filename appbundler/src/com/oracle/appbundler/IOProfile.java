@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Tunings of the {@link CopyPipeline} for the storage that holds the build.
+ * Each profile sets the number of files in flight, the thread counts of the
+ * read, write and metadata stages, and the size of the buffers that carry
+ * file contents from the read to the write stage.
+ */
+enum IOProfile {
+    /** Solid state storage: many parallel requests and moderate buffers. */
+    SSD("ssd", 2 * Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+        Runtime.getRuntime().availableProcessors(), 2, 1 << 20),
+
+    /** Spinning disks: a single reader and writer with large buffers, to avoid seeks. */
+    HDD("hdd", 4, 1, 1, 1, 8 << 20),
+
+    /** Network file systems: many files in flight to hide the latency of each request. */
+    NFS("nfs", 32, 8, 8, 8, 1 << 20);
+
+    static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    private final String value;
+    private final int fileCount;
+    private final int readThreads;
+    private final int writeThreads;
+    private final int metadataThreads;
+    private final int chunkSize;
+
+    private IOProfile(String value, int fileCount, int readThreads, int writeThreads, int metadataThreads,
+        int chunkSize) {
+        this.value = value;
+        this.fileCount = fileCount;
+        this.readThreads = readThreads;
+        this.writeThreads = writeThreads;
+        this.metadataThreads = metadataThreads;
+        this.chunkSize = chunkSize;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the number of files that are prepared concurrently, i.e. the
+     * thread count of the copy engine.
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getReadThreads() {
+        return readThreads;
+    }
+
+    public int getWriteThreads() {
+        return writeThreads;
+    }
+
+    public int getMetadataThreads() {
+        return metadataThreads;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public static IOProfile forValue(String value) {
+        for (IOProfile profile : values()) {
+            if (profile.value.equalsIgnoreCase(value)) {
+                return profile;
+            }
+        }
+
+        throw new BuildException("Invalid I/O profile: " + value);
+    }
+}
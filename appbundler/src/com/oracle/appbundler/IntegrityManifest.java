@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of the size and SHA-256 hash of every file in an app bundle, stored
+ * in the bundle itself so that an installed copy can be verified. Symbolic
+ * links are recorded with the hash of their target path, as in
+ * {@link BundleManifest}.
+ */
+class IntegrityManifest {
+    /**
+     * A single file of the bundle.
+     */
+    static class Entry {
+        final long size;
+        final String hash;
+
+        Entry(long size, String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    static final String PATH = "Contents/Resources/integrity.sha256";
+
+    private static final String HEADER = "# appbundler integrity 1";
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    public synchronized void put(String path, long size, String hash) {
+        if (!path.equals(PATH)) {
+            entries.put(path, new Entry(size, hash));
+        }
+    }
+
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public synchronized void remove(String path) {
+        entries.remove(path);
+    }
+
+    public synchronized Map<String, Entry> getEntries() {
+        return new TreeMap<>(entries);
+    }
+
+    public synchronized IntegrityManifest copy() {
+        IntegrityManifest manifest = new IntegrityManifest();
+        manifest.entries.putAll(entries);
+
+        return manifest;
+    }
+
+    public static IntegrityManifest load(File bundleDirectory) throws IOException {
+        return read(Files.readAllBytes(new File(bundleDirectory, PATH).toPath()));
+    }
+
+    public static IntegrityManifest read(byte[] content) throws IOException {
+        IntegrityManifest manifest = new IntegrityManifest();
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content),
+            StandardCharsets.UTF_8))) {
+            String line = in.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("Invalid integrity manifest.");
+            }
+
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3) {
+                    throw new IOException("Invalid integrity manifest entry: " + line);
+                }
+
+                manifest.entries.put(fields[2], new Entry(Long.parseLong(fields[0]), fields[1]));
+            }
+        } catch (NumberFormatException exception) {
+            throw new IOException("Invalid integrity manifest.", exception);
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Returns the manifest as written into the bundle. The path comes last,
+     * so that it may contain any character but a line break.
+     */
+    public synchronized byte[] toByteArray() {
+        StringBuilder content = new StringBuilder();
+        content.append(HEADER).append('\n');
+
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            content.append(entry.size).append('\t').append(entry.hash).append('\t').append(mapEntry.getKey())
+                .append('\n');
+        }
+
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Compression applied to the jars on the class path of an app bundle.
+ */
+enum JarCompression {
+    /** Keep the compression of each entry as built. */
+    KEEP("keep"),
+
+    /** Store entries uncompressed, so classes can be loaded without inflating them. */
+    STORED("stored"),
+
+    /** Deflate entries with the best compression. */
+    MAX("max");
+
+    private final String value;
+
+    private JarCompression(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static JarCompression forValue(String value) {
+        for (JarCompression compression : values()) {
+            if (compression.value.equalsIgnoreCase(value)) {
+                return compression;
+            }
+        }
+
+        throw new BuildException("Invalid jar compression: " + value);
+    }
+
+    /**
+     * Returns a zip stream that writes entries with this compression.
+     */
+    public ZipOutputStream newOutputStream(OutputStream out) {
+        ZipOutputStream zipOutputStream = new ZipOutputStream(out);
+
+        if (this == MAX) {
+            zipOutputStream.setLevel(Deflater.BEST_COMPRESSION);
+        }
+
+        return zipOutputStream;
+    }
+
+    /**
+     * Rewrites a jar with this compression. Entries are streamed one at a
+     * time and keep their order and modification times.
+     */
+    public void rewrite(File jar, OutputStream out) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            ZipOutputStream zipOutputStream = newOutputStream(out);
+
+            if (zipFile.getComment() != null) {
+                zipOutputStream.setComment(zipFile.getComment());
+            }
+
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                copyEntry(zipFile, zipEntries.nextElement(), zipOutputStream);
+            }
+
+            zipOutputStream.finish();
+        }
+    }
+
+    /**
+     * Copies an entry of a zip file with this compression.
+     */
+    public void copyEntry(ZipFile zipFile, ZipEntry entry, ZipOutputStream out) throws IOException {
+        if (this == KEEP) {
+            Jars.copyEntry(zipFile, entry, out);
+            return;
+        }
+
+        ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+
+        if (this == STORED) {
+            // The central directory already holds the size and checksum a stored entry needs up front
+            copy.setMethod(ZipEntry.STORED);
+            copy.setSize(entry.getSize());
+            copy.setCompressedSize(entry.getSize());
+            copy.setCrc(entry.getCrc());
+        } else {
+            // The stream deflates the entry once and follows it with its sizes
+            copy.setMethod(ZipEntry.DEFLATED);
+        }
+
+        out.putNextEntry(copy);
+
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            Jars.transfer(in, out);
+        }
+
+        out.closeEntry();
+    }
+
+    /**
+     * Writes a generated entry with this compression.
+     */
+    public void writeEntry(ZipOutputStream out, String entryName, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(entryName);
+
+        if (this == STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.oracle.appbundler.classfile.AttributeStripper;
+
+/**
+ * Rewrites the jars on the class path of an app bundle without signatures,
+ * without classes shadowed by earlier jars and, optionally, without debug
+ * attributes. Jars must be added in class path order; the rewrites
+ * themselves may run in parallel.
+ */
+class JarSlimmer {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String MODULE_INFO_NAME = "module-info.class";
+    private static final String DIGEST_SUFFIX = "-Digest";
+
+    /**
+     * What was removed from a jar.
+     */
+    static class Report {
+        int signatureFileCount = 0;
+        int shadowedClassCount = 0;
+        int strippedClassCount = 0;
+
+        @Override
+        public String toString() {
+            return signatureFileCount + " signature files, " + shadowedClassCount + " shadowed classes removed, "
+                + strippedClassCount + " classes stripped";
+        }
+    }
+
+    private final AttributeStripper attributeStripper;
+    private final JarCompression compression;
+
+    // Class entries provided by the jars added so far
+    private final Set<String> classEntryNames = new HashSet<>();
+
+    public JarSlimmer(AttributeStripper attributeStripper, JarCompression compression) {
+        this.attributeStripper = attributeStripper;
+        this.compression = compression;
+    }
+
+    /**
+     * Adds the next jar on the class path, returning its class entries that
+     * are provided by an earlier jar.
+     */
+    public Set<String> addJar(File jar) throws IOException {
+        Set<String> shadowedEntryNames = new HashSet<>();
+
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                String entryName = zipEntries.nextElement().getName();
+
+                if (isClass(entryName) && !classEntryNames.add(entryName)) {
+                    shadowedEntryNames.add(entryName);
+                }
+            }
+        }
+
+        return shadowedEntryNames;
+    }
+
+    public void slim(File jar, Set<String> shadowedEntryNames, Report report, OutputStream out) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            ZipOutputStream zipOutputStream = compression.newOutputStream(out);
+
+            if (zipFile.getComment() != null) {
+                zipOutputStream.setComment(zipFile.getComment());
+            }
+
+            boolean signed = false;
+
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                signed |= Jars.isSignatureFile(zipEntries.nextElement().getName());
+            }
+
+            zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                String entryName = zipEntry.getName();
+
+                if (Jars.isSignatureFile(entryName)) {
+                    report.signatureFileCount++;
+                } else if (shadowedEntryNames.contains(entryName)) {
+                    report.shadowedClassCount++;
+                } else if (signed && entryName.equals(Jars.MANIFEST_NAME)) {
+                    writeEntry(zipOutputStream, zipEntry, removeDigests(read(zipFile, zipEntry)));
+                } else if (attributeStripper != null && isClass(entryName)) {
+                    byte[] classFile = read(zipFile, zipEntry);
+                    byte[] strippedClassFile = attributeStripper.strip(classFile);
+
+                    if (strippedClassFile == classFile) {
+                        compression.copyEntry(zipFile, zipEntry, zipOutputStream);
+                    } else {
+                        writeEntry(zipOutputStream, zipEntry, strippedClassFile);
+                        report.strippedClassCount++;
+                    }
+                } else {
+                    compression.copyEntry(zipFile, zipEntry, zipOutputStream);
+                }
+            }
+
+            zipOutputStream.finish();
+        }
+    }
+
+    private static boolean isClass(String entryName) {
+        return entryName.endsWith(CLASS_SUFFIX) && !entryName.endsWith(MODULE_INFO_NAME);
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.max(zipEntry.getSize(), 0));
+
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            Jars.transfer(in, content);
+        }
+
+        return content.toByteArray();
+    }
+
+    /**
+     * Removes the per-entry digests of a signed jar from its manifest,
+     * dropping entries that hold nothing else.
+     */
+    private static byte[] removeDigests(byte[] content) throws IOException {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(content));
+
+        for (Iterator<Map.Entry<String, Attributes>> iterator = manifest.getEntries().entrySet().iterator();
+            iterator.hasNext();) {
+            Attributes attributes = iterator.next().getValue();
+            attributes.keySet().removeIf(name -> name.toString().endsWith(DIGEST_SUFFIX));
+
+            if (attributes.isEmpty()) {
+                iterator.remove();
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        manifest.write(out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes rewritten content in place of an entry, keeping its
+     * modification time and, unless recompressing, its method.
+     */
+    private void writeEntry(ZipOutputStream out, ZipEntry zipEntry, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(zipEntry.getName());
+        entry.setTime(zipEntry.getTime());
+
+        boolean stored = (compression == JarCompression.KEEP) ? zipEntry.getMethod() == ZipEntry.STORED
+            : compression == JarCompression.STORED;
+
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+        }
+
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Helpers for rewriting jar files.
+ */
+final class Jars {
+    static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    static final String INDEX_NAME = "META-INF/INDEX.LIST";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private Jars() {
+    }
+
+    /**
+     * Returns true if the entry holds a jar signature, which is invalidated
+     * when the contents of the jar change.
+     */
+    static boolean isSignatureFile(String entryName) {
+        if (!entryName.startsWith("META-INF/") || entryName.indexOf('/', 9) != -1) {
+            return false;
+        }
+
+        String fileName = entryName.substring(9).toUpperCase(Locale.ROOT);
+        return fileName.startsWith("SIG-") || fileName.endsWith(".SF") || fileName.endsWith(".RSA")
+            || fileName.endsWith(".DSA") || fileName.endsWith(".EC");
+    }
+
+    /**
+     * Copies an entry of a zip file into the given output, preserving its
+     * compression method and modification time.
+     */
+    static void copyEntry(ZipFile zipFile, ZipEntry entry, ZipOutputStream out) throws IOException {
+        ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+        copy.setMethod(entry.getMethod());
+
+        if (entry.getMethod() == ZipEntry.STORED) {
+            copy.setSize(entry.getSize());
+            copy.setCompressedSize(entry.getCompressedSize());
+            copy.setCrc(entry.getCrc());
+        }
+
+        out.putNextEntry(copy);
+
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            transfer(in, out);
+        }
+
+        out.closeEntry();
+    }
+
+    static long transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long count = 0;
+
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            count += n;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.util.regex.Pattern;
+
+/**
+ * Class representing a rule that keeps matching classes when the bundled
+ * runtime is pruned. Patterns match internal or fully qualified class names;
+ * <code>*</code> matches within a package and <code>**</code> matches any
+ * number of packages, e.g. <code>javax/swing/**</code>.
+ */
+public class KeepRule {
+    private String pattern = null;
+    private Pattern regex = null;
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+        this.regex = null;
+    }
+
+    public boolean matches(String className) {
+        if (regex == null) {
+            regex = compile(pattern.replace('.', '/'));
+        }
+
+        return regex.matcher(className).matches();
+    }
+
+    /**
+     * Compiles a path pattern in which <code>*</code> matches within a path
+     * segment and <code>**</code> matches across segments.
+     */
+    static Pattern compile(String pattern) {
+        StringBuilder regex = new StringBuilder();
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (c == '*') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Class representing a rule that resolves entries found in more than one jar
+ * when the class path is merged into a single jar.
+ */
+public class MergeRule {
+    /**
+     * How duplicate entries are resolved.
+     */
+    enum Action {
+        /** Keep the entry of the first jar on the class path. */
+        FIRST,
+
+        /** Keep the entry of the last jar on the class path. */
+        LAST,
+
+        /** Concatenate the entries of all jars. */
+        CONCAT,
+
+        /** Fail the build if the entries differ. */
+        FAIL
+    }
+
+    private String pattern = null;
+    private Action action = Action.FIRST;
+    private Pattern regex = null;
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+        this.regex = null;
+    }
+
+    public void setAction(String action) {
+        try {
+            this.action = Action.valueOf(action.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exception) {
+            throw new BuildException("Invalid merge action: " + action);
+        }
+    }
+
+    Action getAction() {
+        return action;
+    }
+
+    public boolean matches(String entryName) {
+        if (regex == null) {
+            regex = KeepRule.compile(pattern);
+        }
+
+        return regex.matcher(entryName).matches();
+    }
+
+    @Override
+    public String toString() {
+        return pattern + "=" + action.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Class representing a runtime image linked from the modules of a JDK 9 or
+ * later. The modules are those the class path references, plus any that are
+ * named explicitly, e.g. service providers or modules used by reflection.
+ */
+public class ModularRuntime {
+    private File jmods = null;
+    private String name = "Java.runtime";
+    private Set<String> modules = new LinkedHashSet<>();
+    private boolean stripDebug = true;
+
+    public File getJmods() {
+        return jmods;
+    }
+
+    public void setJmods(File jmods) {
+        this.jmods = jmods;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Set<String> getModules() {
+        return modules;
+    }
+
+    public void setModules(String modules) {
+        this.modules = new LinkedHashSet<>();
+
+        for (String module : modules.split(",")) {
+            module = module.trim();
+
+            if (module.length() > 0) {
+                this.modules.add(module);
+            }
+        }
+    }
+
+    public boolean getStripDebug() {
+        return stripDebug;
+    }
+
+    public void setStripDebug(boolean stripDebug) {
+        this.stripDebug = stripDebug;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
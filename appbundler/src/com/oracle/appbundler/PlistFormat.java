@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.oracle.appbundler.plist.BinaryPlistWriter;
+import com.oracle.appbundler.plist.PlistWriter;
+import com.oracle.appbundler.plist.XMLPlistWriter;
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Formats in which Info.plist can be written.
+ */
+enum PlistFormat {
+    /** Indented XML, readable and editable as text. */
+    XML("xml"),
+
+    /** The bplist00 format, which is smaller and faster to parse. */
+    BINARY("binary");
+
+    private final String value;
+
+    private PlistFormat(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static PlistFormat forValue(String value) {
+        for (PlistFormat format : values()) {
+            if (format.value.equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+
+        throw new BuildException("Invalid plist format: " + value);
+    }
+
+    public PlistWriter newWriter(OutputStream out) throws IOException {
+        return (this == BINARY) ? new BinaryPlistWriter(out) : new XMLPlistWriter(out);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.tools.ant.BuildException;
+
+import com.oracle.appbundler.classfile.ClassFileReader;
+
+/**
+ * Links a minimal runtime image with <code>jlink</code>. The modules to
+ * include are found as <code>jdeps</code> would: the packages referenced by
+ * the class files on the class path are mapped to the modules that export
+ * them. Modules required by those are resolved by <code>jlink</code> itself.
+ */
+class RuntimeLinker {
+    private static final String JMOD_SUFFIX = ".jmod";
+    private static final String JMOD_CLASSES_PREFIX = "classes/";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String BASE_MODULE = "java.base";
+
+    private final ModularRuntime modularRuntime;
+
+    public RuntimeLinker(ModularRuntime modularRuntime) {
+        this.modularRuntime = modularRuntime;
+    }
+
+    /**
+     * Returns the modules that the given class path entries need, together
+     * with the modules named explicitly.
+     */
+    public Set<String> findModules(List<File> classPath) throws IOException {
+        Map<String, String> packageModules = readPackageModules();
+
+        Set<String> modules = new TreeSet<>();
+        modules.add(BASE_MODULE);
+
+        for (String module : modularRuntime.getModules()) {
+            if (!packageModules.containsValue(module)) {
+                throw new BuildException("Module " + module + " not found in " + modularRuntime.getJmods() + ".");
+            }
+
+            modules.add(module);
+        }
+
+        for (File entry : classPath) {
+            for (String packageName : findReferencedPackages(entry)) {
+                String module = packageModules.get(packageName);
+
+                if (module != null) {
+                    modules.add(module);
+                }
+            }
+        }
+
+        return modules;
+    }
+
+    /**
+     * Links the given modules into a runtime image. The output directory
+     * must not exist.
+     */
+    public void link(Set<String> modules, File outputDirectory) throws IOException {
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+            "--module-path", modularRuntime.getJmods().getAbsolutePath(),
+            "--add-modules", String.join(",", modules),
+            "--output", outputDirectory.getAbsolutePath(),
+            "--no-header-files",
+            "--no-man-pages"));
+
+        if (modularRuntime.getStripDebug()) {
+            arguments.add("--strip-debug");
+        }
+
+        StringWriter output = new StringWriter();
+        int result = runJlink(output, arguments.toArray(new String[arguments.size()]));
+
+        if (result != 0) {
+            throw new BuildException("jlink failed with exit code " + result + ": " + output.toString().trim());
+        }
+    }
+
+    /**
+     * Runs <code>jlink</code> in process. The tool provider API is looked up
+     * reflectively, so that the task still loads on Java 8.
+     */
+    private static int runJlink(StringWriter output, String[] arguments) throws IOException {
+        Object jlink;
+        Method run;
+
+        try {
+            Class<?> toolProviderClass = Class.forName("java.util.spi.ToolProvider");
+            Optional<?> toolProvider = (Optional<?>) toolProviderClass.getMethod("findFirst", String.class)
+                .invoke(null, "jlink");
+
+            if (!toolProvider.isPresent()) {
+                throw new BuildException("jlink is not available in this runtime.");
+            }
+
+            jlink = toolProvider.get();
+            run = toolProviderClass.getMethod("run", PrintWriter.class, PrintWriter.class, String[].class);
+        } catch (ClassNotFoundException exception) {
+            throw new BuildException("A modular runtime requires Ant to run on Java 9 or later.");
+        } catch (ReflectiveOperationException exception) {
+            throw new BuildException(exception);
+        }
+
+        try (PrintWriter out = new PrintWriter(output)) {
+            return (Integer) run.invoke(jlink, out, out, arguments);
+        } catch (ReflectiveOperationException exception) {
+            throw new IOException("Unable to run jlink.", exception);
+        }
+    }
+
+    /**
+     * Maps the packages of the modules in the jmods directory to their
+     * modules, using the central directory of each jmod file only.
+     */
+    private Map<String, String> readPackageModules() throws IOException {
+        File[] jmodFiles = modularRuntime.getJmods().listFiles((directory, name) -> name.endsWith(JMOD_SUFFIX));
+
+        if (jmodFiles == null || jmodFiles.length == 0) {
+            throw new BuildException("No jmod files found in " + modularRuntime.getJmods() + ".");
+        }
+
+        Map<String, String> packageModules = new HashMap<>();
+
+        for (File jmodFile : jmodFiles) {
+            String module = jmodFile.getName().substring(0, jmodFile.getName().length() - JMOD_SUFFIX.length());
+
+            // The zip file follows a short header, which is skipped like a self-extractor stub
+            try (ZipFile zipFile = new ZipFile(jmodFile)) {
+                Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    String entryName = zipEntries.nextElement().getName();
+
+                    if (entryName.startsWith(JMOD_CLASSES_PREFIX) && entryName.endsWith(CLASS_SUFFIX)) {
+                        int i = entryName.lastIndexOf('/');
+
+                        if (i >= JMOD_CLASSES_PREFIX.length()) {
+                            packageModules.put(entryName.substring(JMOD_CLASSES_PREFIX.length(), i), module);
+                        }
+                    }
+                }
+            }
+        }
+
+        return packageModules;
+    }
+
+    /**
+     * Returns the packages referenced by the class files of a jar or class
+     * folder.
+     */
+    private static Set<String> findReferencedPackages(File entry) throws IOException {
+        Set<String> packageNames = new TreeSet<>();
+
+        if (entry.isDirectory()) {
+            try (Stream<Path> paths = Files.walk(entry.toPath())) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    if (path.toString().endsWith(CLASS_SUFFIX) && Files.isRegularFile(path)) {
+                        addReferencedPackages(Files.readAllBytes(path), packageNames);
+                    }
+                }
+            }
+        } else if (entry.getName().endsWith(CLASS_SUFFIX)) {
+            addReferencedPackages(Files.readAllBytes(entry.toPath()), packageNames);
+        } else if (entry.isFile()) {
+            try (ZipFile zipFile = new ZipFile(entry)) {
+                Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+
+                    if (zipEntry.getName().endsWith(CLASS_SUFFIX)) {
+                        ByteArrayOutputStream content = new ByteArrayOutputStream(
+                            (int) Math.max(zipEntry.getSize(), 0));
+
+                        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                            Jars.transfer(in, content);
+                        }
+
+                        addReferencedPackages(content.toByteArray(), packageNames);
+                    }
+                }
+            }
+        }
+
+        return packageNames;
+    }
+
+    private static void addReferencedPackages(byte[] classFile, Set<String> packageNames) {
+        try {
+            for (String className : ClassFileReader.read(classFile).getReferences()) {
+                int i = className.lastIndexOf('/');
+
+                if (i != -1) {
+                    packageNames.add(className.substring(0, i));
+                }
+            }
+        } catch (IOException exception) {
+            // module-info.class and other unusual class files are not analyzed
+        }
+    }
+}
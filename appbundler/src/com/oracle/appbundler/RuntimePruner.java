@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.oracle.appbundler.classfile.ClassIndex;
+
+/**
+ * Removes the classes that the application cannot reach from the class
+ * libraries of a bundled runtime.
+ */
+class RuntimePruner {
+    // Classes the VM and the class libraries load without a bytecode reference
+    private static final String[] DEFAULT_KEEP_PATTERNS = {
+        "java/lang/**",
+        "java/io/**",
+        "java/nio/charset/**",
+        "java/security/**",
+        "java/util/**",
+        "sun/launcher/**",
+        "sun/misc/**",
+        "sun/nio/cs/**",
+        "sun/reflect/**",
+        "sun/security/provider/**",
+        "sun/util/locale/**",
+        "sun/util/resources/**",
+        "jdk/internal/**"
+    };
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private final List<File> applicationJars;
+    private final List<File> runtimeJars;
+    private final String mainClassName;
+    private final List<KeepRule> keepRules;
+
+    public RuntimePruner(List<File> applicationJars, List<File> runtimeJars, String mainClassName,
+        List<KeepRule> keepRules) {
+        this.applicationJars = applicationJars;
+        this.runtimeJars = runtimeJars;
+        this.mainClassName = mainClassName;
+        this.keepRules = keepRules;
+    }
+
+    /**
+     * Returns the internal names of all classes reachable from the main
+     * class, the keep rules and the service providers of the application.
+     */
+    public Set<String> findReachableClasses() throws IOException {
+        List<File> jars = new ArrayList<>(applicationJars);
+        jars.addAll(runtimeJars);
+
+        List<Pattern> keepPatterns = new ArrayList<>();
+        for (String pattern : DEFAULT_KEEP_PATTERNS) {
+            keepPatterns.add(KeepRule.compile(pattern));
+        }
+
+        try (ClassIndex classIndex = new ClassIndex(jars)) {
+            List<String> roots = new ArrayList<>();
+            roots.add(ClassIndex.toInternalName(mainClassName));
+
+            for (String className : classIndex.getClassNames()) {
+                if (isKept(className, keepPatterns)) {
+                    roots.add(className);
+                }
+            }
+
+            for (File applicationJar : applicationJars) {
+                roots.addAll(getServiceProviders(applicationJar));
+            }
+
+            return classIndex.findReachable(roots);
+        }
+    }
+
+    private boolean isKept(String className, List<Pattern> keepPatterns) {
+        for (Pattern keepPattern : keepPatterns) {
+            if (keepPattern.matcher(className).matches()) {
+                return true;
+            }
+        }
+
+        for (KeepRule keepRule : keepRules) {
+            if (keepRule.matches(className)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static List<String> getServiceProviders(File jar) throws IOException {
+        List<String> providers = new ArrayList<>();
+
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+
+                if (entry.getName().startsWith(SERVICES_PREFIX) && !entry.isDirectory()) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        zipFile.getInputStream(entry), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            int i = line.indexOf('#');
+                            String provider = ((i == -1) ? line : line.substring(0, i)).trim();
+
+                            if (provider.length() > 0) {
+                                providers.add(ClassIndex.toInternalName(provider));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return providers;
+    }
+
+    /**
+     * Writes a copy of the given jar that contains only the reachable
+     * classes, and the resources of the packages those classes belong to.
+     * Returns a summary of the classes that were kept.
+     */
+    public static String prune(File jar, Set<String> reachableClasses, OutputStream out) throws IOException {
+        Set<String> packages = new HashSet<>();
+        for (String className : reachableClasses) {
+            packages.add(getPackageName(className));
+        }
+
+        int classCount = 0;
+        int keptClassCount = 0;
+
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            ZipOutputStream zipOutputStream = new ZipOutputStream(out);
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String entryName = entry.getName();
+                String className = ClassIndex.getClassName(entryName);
+
+                boolean keep;
+                if (className != null) {
+                    classCount++;
+                    keep = reachableClasses.contains(className);
+                    if (keep) {
+                        keptClassCount++;
+                    }
+                } else if (entryName.equals(Jars.INDEX_NAME)) {
+                    // The index would no longer match the contents of the jar
+                    keep = false;
+                } else {
+                    keep = entryName.startsWith("META-INF/") || packages.contains(getPackageName(entryName));
+                }
+
+                if (keep) {
+                    Jars.copyEntry(zipFile, entry, zipOutputStream);
+                }
+            }
+
+            zipOutputStream.finish();
+        }
+
+        return "kept " + keptClassCount + " of " + classCount + " classes";
+    }
+
+    private static String getPackageName(String path) {
+        int i = path.lastIndexOf('/');
+        return (i == -1) ? "" : path.substring(0, i);
+    }
+}
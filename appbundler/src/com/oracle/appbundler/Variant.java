@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * Class representing a variant of an app bundle. A variant shares the
+ * runtime, class path and library path of the bundle, and overrides its
+ * name, identifier, icon, JVM options, custom <code>Info.plist</code>
+ * entries and resources. Attributes that are not set are taken from the
+ * bundle.
+ */
+public class Variant {
+    private String name = null;
+    private String displayName = null;
+    private String identifier = null;
+    private File icon = null;
+    private List<Option> options = new ArrayList<>();
+    private List<PlistEntry> plistEntries = new ArrayList<>();
+    private List<FileSet> resources = new ArrayList<>();
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public void setDisplayName(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public void setIdentifier(String identifier) {
+        this.identifier = identifier;
+    }
+
+    public File getIcon() {
+        return icon;
+    }
+
+    public void setIcon(File icon) {
+        this.icon = icon;
+    }
+
+    public List<Option> getOptions() {
+        return options;
+    }
+
+    public void addConfiguredOption(Option option) throws BuildException {
+        if (option.getValue() == null) {
+            throw new BuildException("Value is required.");
+        }
+
+        options.add(option);
+    }
+
+    public List<PlistEntry> getPlistEntries() {
+        return plistEntries;
+    }
+
+    public void addConfiguredPlistEntry(PlistEntry entry) throws BuildException {
+        if (entry.getKey() == null) {
+            throw new BuildException("Key is required.");
+        }
+        if (entry.getValue() == null) {
+            throw new BuildException("Value is required.");
+        }
+
+        plistEntries.add(entry);
+    }
+
+    public List<FileSet> getResources() {
+        return resources;
+    }
+
+    public void addConfiguredResources(FileSet resources) {
+        this.resources.add(resources);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Ant task that verifies an app bundle against the integrity manifest
+ * written by {@link AppBundlerTask}.
+ */
+public class VerifyBundleTask extends Task {
+    private File bundle = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean failOnError = true;
+    private String property = null;
+
+    public void setBundle(File bundle) {
+        this.bundle = bundle;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new BuildException("Invalid thread count.");
+        }
+
+        this.threads = threads;
+    }
+
+    public void setFailOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+    }
+
+    public void setProperty(String property) {
+        this.property = property;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (bundle == null) {
+            throw new IllegalStateException("Bundle is required.");
+        }
+
+        if (!bundle.isDirectory()) {
+            throw new IllegalStateException("Bundle does not exist.");
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        BundleVerifier.Result result;
+        try {
+            result = new BundleVerifier(threads).verify(bundle);
+        } catch (IOException exception) {
+            throw new BuildException(exception);
+        }
+
+        for (String path : result.getMissingPaths()) {
+            System.err.println("Missing: " + path);
+        }
+
+        for (String path : result.getModifiedPaths()) {
+            System.err.println("Modified: " + path);
+        }
+
+        for (String path : result.getUnexpectedPaths()) {
+            System.out.println("Unexpected: " + path);
+        }
+
+        for (String path : result.getSignedPaths()) {
+            System.out.println("Signed: " + path);
+        }
+
+        if (!result.getSignedPaths().isEmpty()) {
+            System.out.println("Signed files are covered by their code signature; check it with codesign --verify.");
+        }
+
+        System.out.println("Verified " + bundle.getName() + ": " + result.getFileCount() + " files, "
+            + result.getByteCount() + " bytes in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        if (property != null) {
+            getProject().setNewProperty(property, Boolean.toString(result.isValid()));
+        }
+
+        if (!result.isValid() && failOnError) {
+            throw new BuildException("Bundle verification failed: " + result.getMissingPaths().size()
+                + " missing, " + result.getModifiedPaths().size() + " modified files.");
+        }
+    }
+}
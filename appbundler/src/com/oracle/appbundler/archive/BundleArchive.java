@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Archive into which an app bundle is written instead of a directory.
+ * Entries may be added from several threads; parent directories are added
+ * as needed. Compression runs on a pool of worker threads.
+ */
+public abstract class BundleArchive implements Closeable {
+    protected static final int FILE_TYPE = 0100000;
+    protected static final int DIRECTORY_TYPE = 0040000;
+    protected static final int SYMBOLIC_LINK_TYPE = 0120000;
+
+    protected static final int DIRECTORY_MODE = 0755;
+    protected static final int EXECUTABLE_MODE = 0755;
+    protected static final int FILE_MODE = 0644;
+
+    private static final PosixFilePermission[] PERMISSIONS = {
+        PosixFilePermission.OTHERS_EXECUTE,
+        PosixFilePermission.OTHERS_WRITE,
+        PosixFilePermission.OTHERS_READ,
+        PosixFilePermission.GROUP_EXECUTE,
+        PosixFilePermission.GROUP_WRITE,
+        PosixFilePermission.GROUP_READ,
+        PosixFilePermission.OWNER_EXECUTE,
+        PosixFilePermission.OWNER_WRITE,
+        PosixFilePermission.OWNER_READ
+    };
+
+    protected final OutputStream out;
+    protected final int level;
+    protected final int threads;
+    protected final ExecutorService executorService;
+
+    private final Set<String> directories = new HashSet<>();
+
+    protected BundleArchive(OutputStream out, int level, int threads) {
+        this.out = out;
+        this.level = level;
+        this.threads = threads;
+
+        executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "appbundler-compress");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a regular file or symbolic link, and returns the number of bytes
+     * added. Files keep their permissions; executable files are also made
+     * executable for everyone.
+     */
+    public long addFile(String path, Path source, boolean executable) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        addDirectories(path);
+
+        if (attributes.isSymbolicLink()) {
+            writeSymbolicLink(path, Files.readSymbolicLink(source).toString(), lastModified);
+            return 0;
+        }
+
+        int mode = getMode(source);
+        if (executable) {
+            mode |= 0111;
+        }
+
+        writeFile(path, source, attributes.size(), mode, lastModified);
+
+        return attributes.size();
+    }
+
+    /**
+     * Adds a directory, e.g. one that may remain empty.
+     */
+    public void addDirectory(String path) throws IOException {
+        addDirectories(path + "/");
+    }
+
+    /**
+     * Adds a file with the given content.
+     */
+    public void addContent(String path, byte[] content, boolean executable) throws IOException {
+        addDirectories(path);
+        writeContent(path, content, executable ? EXECUTABLE_MODE : FILE_MODE, System.currentTimeMillis());
+    }
+
+    /**
+     * Writes the end of the archive, without closing the underlying stream.
+     */
+    public abstract void finish() throws IOException;
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    protected abstract void writeDirectory(String path, long lastModified) throws IOException;
+
+    protected abstract void writeSymbolicLink(String path, String target, long lastModified) throws IOException;
+
+    protected abstract void writeFile(String path, Path source, long size, int mode, long lastModified)
+        throws IOException;
+
+    protected abstract void writeContent(String path, byte[] content, int mode, long lastModified)
+        throws IOException;
+
+    private synchronized void addDirectories(String path) throws IOException {
+        int i = path.indexOf('/');
+
+        while (i != -1) {
+            String directory = path.substring(0, i + 1);
+
+            if (directories.add(directory)) {
+                writeDirectory(directory, System.currentTimeMillis());
+            }
+
+            i = path.indexOf('/', i + 1);
+        }
+    }
+
+    private static int getMode(Path source) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(source);
+            int mode = 0;
+
+            for (int i = 0; i < PERMISSIONS.length; i++) {
+                if (permissions.contains(PERMISSIONS[i])) {
+                    mode |= 1 << i;
+                }
+            }
+
+            return mode;
+        } catch (UnsupportedOperationException exception) {
+            return Files.isExecutable(source) ? EXECUTABLE_MODE : FILE_MODE;
+        }
+    }
+}
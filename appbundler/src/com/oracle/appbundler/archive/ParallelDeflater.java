@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that deflates its input in blocks compressed in parallel,
+ * as done by pigz. Each block is primed with the last 32 KB of the previous
+ * block, and all but the last block end with a sync flush, so that the
+ * blocks concatenate into a single raw deflate stream that compresses
+ * almost as well as a serial one.
+ */
+public class ParallelDeflater extends OutputStream {
+    public static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ExecutorService executorService;
+    private final int level;
+    private final int maximumPending;
+    private final OutputStream out;
+
+    private final CRC32 crc = new CRC32();
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] dictionary = null;
+    private long inputSize = 0;
+    private long outputSize = 0;
+    private boolean finished = false;
+
+    public ParallelDeflater(ExecutorService executorService, int level, int threads, OutputStream out) {
+        this.executorService = executorService;
+        this.level = level;
+        this.maximumPending = threads * 2;
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Deflater already finished.");
+        }
+
+        crc.update(b, off, len);
+        inputSize += len;
+
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+
+            if (blockLength == BLOCK_SIZE) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses the remaining input and writes the end of the deflate
+     * stream, without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            submit(true);
+            finished = true;
+
+            while (!pending.isEmpty()) {
+                drain();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    public long getCrc() {
+        return crc.getValue();
+    }
+
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] input = (blockLength == block.length) ? block : Arrays.copyOf(block, blockLength);
+        final byte[] blockDictionary = dictionary;
+
+        pending.add(executorService.submit(() -> deflate(input, blockDictionary, last)));
+
+        if (input.length >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(input, input.length - DICTIONARY_SIZE, input.length);
+        } else if (input.length > 0) {
+            // Only happens for the last block
+            dictionary = input;
+        }
+
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+
+        while (pending.size() > maximumPending || (!pending.isEmpty() && pending.peek().isDone())) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        byte[] output;
+
+        try {
+            output = pending.remove().get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException exception) {
+            throw new IOException(exception.getCause());
+        }
+
+        out.write(output);
+        outputSize += output.length;
+    }
+
+    private byte[] deflate(byte[] input, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 64);
+        byte[] buffer = new byte[16 * 1024];
+
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(input);
+
+            if (last) {
+                deflater.finish();
+
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    output.write(buffer, 0, n);
+                }
+            } else {
+                // Sync flush ends the block on a byte boundary
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return output.toByteArray();
+    }
+}
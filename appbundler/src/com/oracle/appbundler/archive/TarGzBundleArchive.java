@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Bundle archive in gzip compressed POSIX tar format. The tar stream is
+ * written by one thread at a time and compressed in parallel blocks into a
+ * single gzip member.
+ */
+public class TarGzBundleArchive extends BundleArchive {
+    private static final int RECORD_SIZE = 512;
+
+    private static final byte FILE_TYPE_FLAG = '0';
+    private static final byte SYMBOLIC_LINK_TYPE_FLAG = '2';
+    private static final byte DIRECTORY_TYPE_FLAG = '5';
+    private static final byte EXTENDED_HEADER_TYPE_FLAG = 'x';
+
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+
+    private final ParallelDeflater deflater;
+
+    public TarGzBundleArchive(OutputStream out, int level, int threads) throws IOException {
+        super(out, level, threads);
+
+        // Header without name or time, so that equal input gives equal output
+        out.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 3});
+
+        deflater = new ParallelDeflater(executorService, level, threads, out);
+    }
+
+    @Override
+    protected synchronized void writeDirectory(String path, long lastModified) throws IOException {
+        writeHeader(path, DIRECTORY_MODE, 0, lastModified, DIRECTORY_TYPE_FLAG, "");
+    }
+
+    @Override
+    protected synchronized void writeSymbolicLink(String path, String target, long lastModified)
+        throws IOException {
+        writeHeader(path, 0777, 0, lastModified, SYMBOLIC_LINK_TYPE_FLAG, target);
+    }
+
+    @Override
+    protected synchronized void writeFile(String path, Path source, long size, int mode, long lastModified)
+        throws IOException {
+        writeHeader(path, mode, size, lastModified, FILE_TYPE_FLAG, "");
+
+        try (InputStream in = Files.newInputStream(source)) {
+            byte[] buffer = new byte[ParallelDeflater.BLOCK_SIZE];
+            long remaining = size;
+            int n;
+
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                deflater.write(buffer, 0, n);
+                remaining -= n;
+            }
+
+            if (remaining > 0) {
+                throw new IOException(source + " changed while it was being archived.");
+            }
+        }
+
+        pad(size);
+    }
+
+    @Override
+    protected synchronized void writeContent(String path, byte[] content, int mode, long lastModified)
+        throws IOException {
+        writeHeader(path, mode, content.length, lastModified, FILE_TYPE_FLAG, "");
+        deflater.write(content, 0, content.length);
+        pad(content.length);
+    }
+
+    @Override
+    public synchronized void finish() throws IOException {
+        // End of archive
+        deflater.write(new byte[RECORD_SIZE * 2], 0, RECORD_SIZE * 2);
+        deflater.finish();
+
+        long crc = deflater.getCrc();
+        long size = deflater.getInputSize();
+        out.write(new byte[] {
+            (byte) crc, (byte) (crc >>> 8), (byte) (crc >>> 16), (byte) (crc >>> 24),
+            (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)
+        });
+
+        out.flush();
+    }
+
+    private void writeHeader(String path, int mode, long size, long lastModified, byte typeFlag, String linkName)
+        throws IOException {
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = new byte[0];
+        byte[] link = linkName.getBytes(StandardCharsets.UTF_8);
+
+        if (name.length > NAME_LENGTH) {
+            // Split the path into prefix and name if possible
+            int i = path.lastIndexOf('/', path.length() - 2);
+            while (i != -1 && path.substring(0, i).getBytes(StandardCharsets.UTF_8).length > PREFIX_LENGTH) {
+                i = path.lastIndexOf('/', i - 1);
+            }
+
+            if (i != -1 && path.substring(i + 1).getBytes(StandardCharsets.UTF_8).length <= NAME_LENGTH) {
+                prefix = path.substring(0, i).getBytes(StandardCharsets.UTF_8);
+                name = path.substring(i + 1).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        if (name.length > NAME_LENGTH || link.length > NAME_LENGTH) {
+            // Use a pax extended header for names that do not fit
+            StringBuilder records = new StringBuilder();
+            if (name.length > NAME_LENGTH) {
+                records.append(getRecord("path", path));
+                name = Arrays.copyOf(name, NAME_LENGTH);
+                prefix = new byte[0];
+            }
+
+            if (link.length > NAME_LENGTH) {
+                records.append(getRecord("linkpath", linkName));
+                link = Arrays.copyOf(link, NAME_LENGTH);
+            }
+
+            byte[] content = records.toString().getBytes(StandardCharsets.UTF_8);
+            writeHeader("PaxHeader".getBytes(StandardCharsets.UTF_8), new byte[0],
+                FILE_MODE, content.length, lastModified, EXTENDED_HEADER_TYPE_FLAG, new byte[0]);
+            deflater.write(content, 0, content.length);
+            pad(content.length);
+        }
+
+        writeHeader(name, prefix, mode, size, lastModified, typeFlag, link);
+    }
+
+    private void writeHeader(byte[] name, byte[] prefix, int mode, long size, long lastModified, byte typeFlag,
+        byte[] link) throws IOException {
+        byte[] header = new byte[RECORD_SIZE];
+
+        System.arraycopy(name, 0, header, 0, name.length);
+        putOctal(header, 100, 8, mode);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, Math.max(lastModified / 1000, 0));
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = typeFlag;
+        System.arraycopy(link, 0, header, 157, link.length);
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+
+        putOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+
+        deflater.write(header, 0, header.length);
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % RECORD_SIZE);
+
+        if (remainder != 0) {
+            deflater.write(new byte[RECORD_SIZE - remainder], 0, RECORD_SIZE - remainder);
+        }
+    }
+
+    private static String getRecord(String key, String value) {
+        // The length includes itself
+        String record = " " + key + "=" + value + "\n";
+        int length = record.getBytes(StandardCharsets.UTF_8).length;
+        int digits = Integer.toString(length).length();
+
+        while (Integer.toString(length + digits).length() != digits) {
+            digits++;
+        }
+
+        return (length + digits) + record;
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        // Zero padded and terminated by NUL
+        String octal = Long.toOctalString(value);
+        if (octal.length() > length - 1) {
+            throw new IllegalArgumentException("Value too large for tar header: " + value);
+        }
+
+        for (int i = 0; i < length - 1 - octal.length(); i++) {
+            header[offset + i] = '0';
+        }
+
+        byte[] digits = octal.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digits, 0, header, offset + length - 1 - digits.length, digits.length);
+        header[offset + length - 1] = 0;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Bundle archive in zip format, with Unix permissions and symbolic links
+ * stored as by Info-ZIP. Small files are compressed by the threads adding
+ * them; larger files are compressed in parallel blocks.
+ */
+public class ZipBundleArchive extends BundleArchive {
+    private static class Entry {
+        final byte[] name;
+        final int method;
+        final int flags;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final int time;
+        final int mode;
+        final long offset;
+
+        Entry(byte[] name, int method, int flags, long crc, long compressedSize, long size, int time, int mode,
+            long offset) {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.time = time;
+            this.mode = mode;
+            this.offset = offset;
+        }
+    }
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int UTF8_FLAG = 0x800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+
+    // Unix, zip 2.0
+    private static final int VERSION_MADE_BY = (3 << 8) | 20;
+    private static final int VERSION_NEEDED = 20;
+    private static final int DOS_DIRECTORY_ATTRIBUTE = 0x10;
+
+    private static final long LIMIT = 0xffffffffL;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long offset = 0;
+
+    public ZipBundleArchive(OutputStream out, int level, int threads) {
+        super(out, level, threads);
+    }
+
+    @Override
+    protected synchronized void writeDirectory(String path, long lastModified) throws IOException {
+        writeEntry(path, STORED, 0, new byte[0], 0, DIRECTORY_TYPE | DIRECTORY_MODE, lastModified);
+    }
+
+    @Override
+    protected void writeSymbolicLink(String path, String target, long lastModified) throws IOException {
+        byte[] content = target.getBytes(StandardCharsets.UTF_8);
+        writeEntry(path, STORED, crc(content), content, content.length, SYMBOLIC_LINK_TYPE | 0777, lastModified);
+    }
+
+    @Override
+    protected void writeFile(String path, Path source, long size, int mode, long lastModified)
+        throws IOException {
+        if (size <= ParallelDeflater.BLOCK_SIZE) {
+            writeContent(path, Files.readAllBytes(source), mode, lastModified);
+        } else if (level == 0) {
+            writeStoredFile(path, source, mode, lastModified);
+        } else {
+            writeDeflatedFile(path, source, mode, lastModified);
+        }
+    }
+
+    @Override
+    protected void writeContent(String path, byte[] content, int mode, long lastModified) throws IOException {
+        long crc = crc(content);
+
+        if (level != 0 && content.length > 0) {
+            // Compress on the calling thread and keep the result if it is smaller
+            byte[] compressedContent = deflate(content);
+
+            if (compressedContent.length < content.length) {
+                writeEntry(path, DEFLATED, crc, compressedContent, content.length, FILE_TYPE | mode, lastModified);
+                return;
+            }
+        }
+
+        writeEntry(path, STORED, crc, content, content.length, FILE_TYPE | mode, lastModified);
+    }
+
+    @Override
+    public synchronized void finish() throws IOException {
+        long directoryOffset = offset;
+
+        for (Entry entry : entries) {
+            writeInt(0x02014b50);
+            writeShort(VERSION_MADE_BY);
+            writeShort(VERSION_NEEDED);
+            writeShort(entry.flags);
+            writeShort(entry.method);
+            writeInt(entry.time);
+            writeInt(entry.crc);
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+            writeShort(entry.name.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(((long) entry.mode << 16)
+                | (((entry.mode & DIRECTORY_TYPE) == DIRECTORY_TYPE) ? DOS_DIRECTORY_ATTRIBUTE : 0));
+            writeInt(entry.offset);
+            write(entry.name);
+        }
+
+        long directorySize = offset - directoryOffset;
+
+        if (entries.size() > 0xffff || directoryOffset > LIMIT || directorySize > LIMIT) {
+            throw new IOException("Bundle exceeds the limits of the zip format.");
+        }
+
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort(entries.size());
+        writeShort(entries.size());
+        writeInt(directorySize);
+        writeInt(directoryOffset);
+        writeShort(0);
+
+        out.flush();
+    }
+
+    private synchronized void writeEntry(String path, int method, long crc, byte[] data, long size, int mode,
+        long lastModified) throws IOException {
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        Entry entry = new Entry(name, method, UTF8_FLAG, crc, data.length, size, toDosTime(lastModified), mode,
+            offset);
+
+        writeLocalHeader(entry);
+        write(data);
+        entries.add(entry);
+    }
+
+    private synchronized void writeStoredFile(String path, Path source, int mode, long lastModified)
+        throws IOException {
+        // The checksum of stored entries is needed up front
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[ParallelDeflater.BLOCK_SIZE];
+
+        try (InputStream in = Files.newInputStream(source)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+
+        long size = Files.size(source);
+        Entry entry = new Entry(path.getBytes(StandardCharsets.UTF_8), STORED, UTF8_FLAG, crc.getValue(), size,
+            size, toDosTime(lastModified), FILE_TYPE | mode, offset);
+
+        writeLocalHeader(entry);
+
+        try (InputStream in = Files.newInputStream(source)) {
+            int n;
+            long remaining = size;
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                write(buffer, n);
+                remaining -= n;
+            }
+
+            if (remaining > 0) {
+                throw new IOException(source + " changed while it was being archived.");
+            }
+        }
+
+        entries.add(entry);
+    }
+
+    private synchronized void writeDeflatedFile(String path, Path source, int mode, long lastModified)
+        throws IOException {
+        // Sizes and checksum follow the data in a data descriptor
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        int flags = UTF8_FLAG | DATA_DESCRIPTOR_FLAG;
+        long entryOffset = offset;
+
+        writeLocalHeader(new Entry(name, DEFLATED, flags, 0, 0, 0, toDosTime(lastModified), mode, entryOffset));
+
+        ParallelDeflater deflater = new ParallelDeflater(executorService, level, threads, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                offset += len;
+            }
+        });
+
+        try (InputStream in = Files.newInputStream(source)) {
+            byte[] buffer = new byte[ParallelDeflater.BLOCK_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                deflater.write(buffer, 0, n);
+            }
+        }
+
+        deflater.finish();
+
+        Entry entry = new Entry(name, DEFLATED, flags, deflater.getCrc(), deflater.getOutputSize(),
+            deflater.getInputSize(), toDosTime(lastModified), FILE_TYPE | mode, entryOffset);
+
+        if (entry.size > LIMIT || entry.compressedSize > LIMIT) {
+            throw new IOException("Bundle exceeds the limits of the zip format.");
+        }
+
+        writeInt(0x08074b50);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+
+        entries.add(entry);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        if (entry.offset > LIMIT || entry.size > LIMIT || entry.compressedSize > LIMIT) {
+            throw new IOException("Bundle exceeds the limits of the zip format.");
+        }
+
+        writeInt(0x04034b50);
+        writeShort(VERSION_NEEDED);
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeInt(entry.time);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        writeShort(0);
+        write(entry.name);
+    }
+
+    private byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream compressedContent = new ByteArrayOutputStream(content.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressedContent.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return compressedContent.toByteArray();
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+        if (dateTime.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return ((dateTime.getYear() - 1980) << 25) | (dateTime.getMonthValue() << 21)
+            | (dateTime.getDayOfMonth() << 16) | (dateTime.getHour() << 11) | (dateTime.getMinute() << 5)
+            | (dateTime.getSecond() >> 1);
+    }
+
+    private void write(byte[] data) throws IOException {
+        write(data, data.length);
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        offset += length;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        offset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xffff));
+        writeShort((int) ((value >>> 16) & 0xffff));
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.classfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes debug attributes from class files. The constant pool is copied
+ * unchanged, so no references need to be renumbered.
+ */
+public class AttributeStripper {
+    /** The attributes that can be removed without affecting execution. */
+    public static final Set<String> DEBUG_ATTRIBUTES = Collections.unmodifiableSet(new LinkedHashSet<>(
+        Arrays.asList("SourceFile", "SourceDebugExtension", "LineNumberTable", "LocalVariableTable",
+            "LocalVariableTypeTable", "MethodParameters")));
+
+    private static final String CODE_ATTRIBUTE = "Code";
+
+    private final Set<String> attributeNames;
+
+    public AttributeStripper(Set<String> attributeNames) {
+        for (String attributeName : attributeNames) {
+            if (!DEBUG_ATTRIBUTES.contains(attributeName)) {
+                throw new IllegalArgumentException(attributeName);
+            }
+        }
+
+        this.attributeNames = attributeNames;
+    }
+
+    /**
+     * Returns the given class file without the attributes to strip, or the
+     * class file itself if it does not contain any.
+     */
+    public byte[] strip(byte[] classFile) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(classFile.length);
+
+        int count;
+        try {
+            count = strip(new DataInputStream(new ByteArrayInputStream(classFile)), new DataOutputStream(content));
+        } catch (EOFException | IndexOutOfBoundsException exception) {
+            throw new IOException("Invalid class file.", exception);
+        }
+
+        return (count == 0) ? classFile : content.toByteArray();
+    }
+
+    private int strip(DataInputStream in, DataOutputStream out) throws IOException {
+        int magic = in.readInt();
+        if (magic != ClassFileReader.MAGIC) {
+            throw new IOException("Invalid class file.");
+        }
+
+        out.writeInt(magic);
+
+        // Minor and major version
+        out.writeInt(in.readInt());
+
+        // Copy the constant pool, keeping the names attributes may refer to
+        int constantPoolCount = in.readUnsignedShort();
+        out.writeShort(constantPoolCount);
+
+        String[] utf8Values = new String[constantPoolCount];
+
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            out.writeByte(tag);
+
+            switch (tag) {
+                case ClassFileReader.CONSTANT_UTF8:
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    out.writeShort(bytes.length);
+                    out.write(bytes);
+
+                    // Attribute names are ASCII, which no other encoded character can equal
+                    utf8Values[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+                    break;
+
+                case ClassFileReader.CONSTANT_CLASS:
+                case ClassFileReader.CONSTANT_STRING:
+                case ClassFileReader.CONSTANT_METHOD_TYPE:
+                case ClassFileReader.CONSTANT_MODULE:
+                case ClassFileReader.CONSTANT_PACKAGE:
+                    out.writeShort(in.readUnsignedShort());
+                    break;
+
+                case ClassFileReader.CONSTANT_METHOD_HANDLE:
+                    out.writeByte(in.readUnsignedByte());
+                    out.writeShort(in.readUnsignedShort());
+                    break;
+
+                case ClassFileReader.CONSTANT_FIELDREF:
+                case ClassFileReader.CONSTANT_METHODREF:
+                case ClassFileReader.CONSTANT_INTERFACE_METHODREF:
+                case ClassFileReader.CONSTANT_NAME_AND_TYPE:
+                case ClassFileReader.CONSTANT_DYNAMIC:
+                case ClassFileReader.CONSTANT_INVOKE_DYNAMIC:
+                case ClassFileReader.CONSTANT_INTEGER:
+                case ClassFileReader.CONSTANT_FLOAT:
+                    out.writeInt(in.readInt());
+                    break;
+
+                case ClassFileReader.CONSTANT_LONG:
+                case ClassFileReader.CONSTANT_DOUBLE:
+                    out.writeLong(in.readLong());
+                    i++;
+                    break;
+
+                default:
+                    throw new IOException("Invalid constant pool tag " + tag + ".");
+            }
+        }
+
+        // Access flags, this class and super class
+        out.writeShort(in.readUnsignedShort());
+        out.writeShort(in.readUnsignedShort());
+        out.writeShort(in.readUnsignedShort());
+
+        int interfaceCount = in.readUnsignedShort();
+        out.writeShort(interfaceCount);
+
+        for (int i = 0; i < interfaceCount; i++) {
+            out.writeShort(in.readUnsignedShort());
+        }
+
+        int count = 0;
+
+        // Fields, then methods
+        for (int k = 0; k < 2; k++) {
+            int memberCount = in.readUnsignedShort();
+            out.writeShort(memberCount);
+
+            for (int i = 0; i < memberCount; i++) {
+                out.writeShort(in.readUnsignedShort());
+                out.writeShort(in.readUnsignedShort());
+                out.writeShort(in.readUnsignedShort());
+
+                count += stripAttributes(in, out, utf8Values);
+            }
+        }
+
+        count += stripAttributes(in, out, utf8Values);
+
+        if (in.read() != -1) {
+            throw new IOException("Invalid class file.");
+        }
+
+        return count;
+    }
+
+    /**
+     * Copies an attribute table without the attributes to strip, descending
+     * into Code attributes. Returns the number of attributes removed.
+     */
+    private int stripAttributes(DataInputStream in, DataOutputStream out, String[] utf8Values) throws IOException {
+        int count = 0;
+
+        int attributeCount = in.readUnsignedShort();
+        List<byte[]> attributes = new ArrayList<>(attributeCount);
+        List<Integer> nameIndexes = new ArrayList<>(attributeCount);
+
+        for (int i = 0; i < attributeCount; i++) {
+            int nameIndex = in.readUnsignedShort();
+            byte[] attribute = new byte[in.readInt()];
+            in.readFully(attribute);
+
+            String attributeName = utf8Values[nameIndex];
+
+            if (attributeNames.contains(attributeName)) {
+                count++;
+                continue;
+            }
+
+            if (CODE_ATTRIBUTE.equals(attributeName)) {
+                ByteArrayOutputStream code = new ByteArrayOutputStream(attribute.length);
+                int codeCount = stripCode(new DataInputStream(new ByteArrayInputStream(attribute)),
+                    new DataOutputStream(code), utf8Values);
+
+                if (codeCount > 0) {
+                    attribute = code.toByteArray();
+                    count += codeCount;
+                }
+            }
+
+            nameIndexes.add(nameIndex);
+            attributes.add(attribute);
+        }
+
+        out.writeShort(attributes.size());
+
+        for (int i = 0; i < attributes.size(); i++) {
+            out.writeShort(nameIndexes.get(i));
+            out.writeInt(attributes.get(i).length);
+            out.write(attributes.get(i));
+        }
+
+        return count;
+    }
+
+    private int stripCode(DataInputStream in, DataOutputStream out, String[] utf8Values) throws IOException {
+        // max_stack and max_locals
+        out.writeInt(in.readInt());
+
+        byte[] code = new byte[in.readInt()];
+        in.readFully(code);
+        out.writeInt(code.length);
+        out.write(code);
+
+        int exceptionTableLength = in.readUnsignedShort();
+        byte[] exceptionTable = new byte[exceptionTableLength * 8];
+        in.readFully(exceptionTable);
+        out.writeShort(exceptionTableLength);
+        out.write(exceptionTable);
+
+        return stripAttributes(in, out, utf8Values);
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.classfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extracts the class references from a class file, without loading it.
+ */
+public class ClassFileReader {
+    static final int MAGIC = 0xCAFEBABE;
+
+    static final int CONSTANT_UTF8 = 1;
+    static final int CONSTANT_INTEGER = 3;
+    static final int CONSTANT_FLOAT = 4;
+    static final int CONSTANT_LONG = 5;
+    static final int CONSTANT_DOUBLE = 6;
+    static final int CONSTANT_CLASS = 7;
+    static final int CONSTANT_STRING = 8;
+    static final int CONSTANT_FIELDREF = 9;
+    static final int CONSTANT_METHODREF = 10;
+    static final int CONSTANT_INTERFACE_METHODREF = 11;
+    static final int CONSTANT_NAME_AND_TYPE = 12;
+    static final int CONSTANT_METHOD_HANDLE = 15;
+    static final int CONSTANT_METHOD_TYPE = 16;
+    static final int CONSTANT_DYNAMIC = 17;
+    static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    static final int CONSTANT_MODULE = 19;
+    static final int CONSTANT_PACKAGE = 20;
+
+    private static final String STATIC_INITIALIZER_NAME = "<clinit>";
+    private static final String CODE_ATTRIBUTE = "Code";
+
+    // Length of each instruction including its operands; 0 for variable length
+    private static final byte[] INSTRUCTION_LENGTHS = new byte[256];
+
+    static {
+        for (int opcode = 0; opcode <= 201; opcode++) {
+            INSTRUCTION_LENGTHS[opcode] = 1;
+        }
+
+        int[] twoByte = {16, 18, 21, 22, 23, 24, 25, 54, 55, 56, 57, 58, 169, 188};
+        int[] threeByte = {17, 19, 20, 132, 178, 179, 180, 181, 182, 183, 184, 187, 189, 192, 193, 198, 199};
+
+        for (int opcode : twoByte) {
+            INSTRUCTION_LENGTHS[opcode] = 2;
+        }
+
+        for (int opcode : threeByte) {
+            INSTRUCTION_LENGTHS[opcode] = 3;
+        }
+
+        for (int opcode = 153; opcode <= 168; opcode++) {
+            INSTRUCTION_LENGTHS[opcode] = 3;
+        }
+
+        INSTRUCTION_LENGTHS[185] = 5;
+        INSTRUCTION_LENGTHS[186] = 5;
+        INSTRUCTION_LENGTHS[197] = 4;
+        INSTRUCTION_LENGTHS[200] = 5;
+        INSTRUCTION_LENGTHS[201] = 5;
+
+        // tableswitch, lookupswitch and wide
+        INSTRUCTION_LENGTHS[170] = 0;
+        INSTRUCTION_LENGTHS[171] = 0;
+        INSTRUCTION_LENGTHS[196] = 0;
+    }
+
+    private ClassFileReader() {
+    }
+
+    public static ClassInfo read(byte[] classFile) throws IOException {
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(classFile)));
+        } catch (EOFException | IndexOutOfBoundsException | ClassCastException exception) {
+            throw new IOException("Invalid class file.", exception);
+        }
+    }
+
+    private static ClassInfo read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid class file.");
+        }
+
+        // Skip minor and major version
+        in.readInt();
+
+        // Read constant pool
+        int constantPoolCount = in.readUnsignedShort();
+        int[] tags = new int[constantPoolCount];
+        Object[] values = new Object[constantPoolCount];
+
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            tags[i] = tag;
+
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    values[i] = in.readUTF();
+                    break;
+
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    values[i] = in.readUnsignedShort();
+                    break;
+
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    values[i] = new int[] {in.readUnsignedShort(), in.readUnsignedShort()};
+                    break;
+
+                case CONSTANT_METHOD_HANDLE:
+                    in.readUnsignedByte();
+                    values[i] = in.readUnsignedShort();
+                    break;
+
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                    in.readInt();
+                    break;
+
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.readLong();
+                    i++;
+                    break;
+
+                default:
+                    throw new IOException("Invalid constant pool tag " + tag + ".");
+            }
+        }
+
+        Set<String> references = new LinkedHashSet<>();
+        Set<String> stringConstants = new LinkedHashSet<>();
+
+        for (int i = 1; i < constantPoolCount; i++) {
+            switch (tags[i]) {
+                case CONSTANT_CLASS:
+                    addClassName(references, (String) values[(Integer) values[i]]);
+                    break;
+
+                case CONSTANT_STRING:
+                    stringConstants.add((String) values[(Integer) values[i]]);
+                    break;
+
+                case CONSTANT_UTF8:
+                    // Covers member, method type and annotation descriptors
+                    addDescriptor(references, (String) values[i]);
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        in.readUnsignedShort();
+        int thisClass = in.readUnsignedShort();
+        int superClass = in.readUnsignedShort();
+
+        String name = getClassName(values, thisClass);
+        String superName = (superClass == 0) ? null : getClassName(values, superClass);
+        references.remove(name);
+
+        List<String> interfaces = new ArrayList<>();
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(getClassName(values, in.readUnsignedShort()));
+        }
+
+        // Skip fields
+        int fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            in.skipBytes(6);
+            skipAttributes(in);
+        }
+
+        // Scan the static initializer
+        Set<String> initializerReferences = new LinkedHashSet<>();
+
+        int methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            in.readUnsignedShort();
+            String methodName = (String) values[in.readUnsignedShort()];
+            in.readUnsignedShort();
+
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                String attributeName = (String) values[in.readUnsignedShort()];
+                int length = in.readInt();
+
+                if (STATIC_INITIALIZER_NAME.equals(methodName) && CODE_ATTRIBUTE.equals(attributeName)) {
+                    byte[] code = new byte[length];
+                    in.readFully(code);
+                    scanCode(code, tags, values, initializerReferences);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+
+        initializerReferences.remove(name);
+
+        return new ClassInfo(name, superName, interfaces, references, initializerReferences, stringConstants);
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            in.readUnsignedShort();
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    private static String getClassName(Object[] values, int index) {
+        return (String) values[(Integer) values[index]];
+    }
+
+    /**
+     * Collects the classes referenced by the instructions of a Code attribute.
+     */
+    private static void scanCode(byte[] attribute, int[] tags, Object[] values, Set<String> references) {
+        // max_stack, max_locals and code_length precede the code
+        int codeLength = readInt(attribute, 4);
+        int start = 8;
+        int end = start + codeLength;
+
+        int pc = start;
+        while (pc < end) {
+            int opcode = attribute[pc] & 0xff;
+            int length = INSTRUCTION_LENGTHS[opcode];
+
+            switch (opcode) {
+                case 18:
+                    addConstantReference(attribute[pc + 1] & 0xff, tags, values, references);
+                    break;
+
+                case 19: case 20: case 178: case 179: case 180: case 181: case 182: case 183: case 184:
+                case 185: case 187: case 189: case 192: case 193: case 197:
+                    addConstantReference(readUnsignedShort(attribute, pc + 1), tags, values, references);
+                    break;
+
+                case 170: {
+                    int base = pc + 1 + ((3 - (pc - start)) & 3);
+                    int low = readInt(attribute, base + 4);
+                    int high = readInt(attribute, base + 8);
+                    length = base - pc + 12 + (high - low + 1) * 4;
+                    break;
+                }
+
+                case 171: {
+                    int base = pc + 1 + ((3 - (pc - start)) & 3);
+                    int pairCount = readInt(attribute, base + 4);
+                    length = base - pc + 8 + pairCount * 8;
+                    break;
+                }
+
+                case 196:
+                    length = ((attribute[pc + 1] & 0xff) == 132) ? 6 : 4;
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (length <= 0) {
+                // Unknown opcode; stop rather than misinterpret the remaining code
+                break;
+            }
+
+            pc += length;
+        }
+    }
+
+    private static void addConstantReference(int index, int[] tags, Object[] values, Set<String> references) {
+        switch (tags[index]) {
+            case CONSTANT_CLASS:
+                addClassName(references, getClassName(values, index));
+                break;
+
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+                addClassName(references, getClassName(values, ((int[]) values[index])[0]));
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private static void addClassName(Set<String> references, String className) {
+        if (className.startsWith("[")) {
+            addDescriptor(references, className);
+        } else {
+            references.add(className);
+        }
+    }
+
+    /**
+     * Adds the classes named by a field or method descriptor. Strings that are
+     * not valid descriptors are ignored.
+     */
+    static void addDescriptor(Set<String> references, String descriptor) {
+        int length = descriptor.length();
+        if (length == 0 || "([L".indexOf(descriptor.charAt(0)) == -1) {
+            return;
+        }
+
+        List<String> classNames = new ArrayList<>();
+
+        int i = 0;
+        while (i < length) {
+            char c = descriptor.charAt(i);
+
+            if (c == 'L') {
+                int end = descriptor.indexOf(';', i);
+                if (end == -1 || end == i + 1) {
+                    return;
+                }
+
+                String className = descriptor.substring(i + 1, end);
+                for (int j = 0; j < className.length(); j++) {
+                    if ("<>.[;:(".indexOf(className.charAt(j)) != -1) {
+                        return;
+                    }
+                }
+
+                classNames.add(className);
+                i = end + 1;
+            } else if ("BCDFIJSZV[()".indexOf(c) != -1) {
+                i++;
+            } else {
+                return;
+            }
+        }
+
+        references.addAll(classNames);
+    }
+
+    static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+            | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
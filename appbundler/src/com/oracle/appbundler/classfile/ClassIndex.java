@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the classes in an ordered list of jar files. As on a class
+ * path, a class is resolved to the first jar that contains it.
+ */
+public class ClassIndex implements Closeable {
+    public static final String CLASS_SUFFIX = ".class";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final List<ZipFile> zipFiles = new ArrayList<>();
+    private final Map<String, ZipFile> owners = new LinkedHashMap<>();
+    private final Map<ZipFile, File> jars = new HashMap<>();
+    private final Map<String, ClassInfo> classInfos = new HashMap<>();
+
+    public ClassIndex(List<File> jarFiles) throws IOException {
+        try {
+            for (File jarFile : jarFiles) {
+                ZipFile zipFile = new ZipFile(jarFile);
+                zipFiles.add(zipFile);
+                jars.put(zipFile, jarFile);
+
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    String className = getClassName(entries.nextElement().getName());
+
+                    if (className != null && !owners.containsKey(className)) {
+                        owners.put(className, zipFile);
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Returns the internal name of the class stored in the given jar entry,
+     * or <code>null</code> if the entry is not a class.
+     */
+    public static String getClassName(String entryName) {
+        if (!entryName.endsWith(CLASS_SUFFIX) || entryName.startsWith("META-INF/")
+            || entryName.endsWith("module-info.class") || entryName.endsWith("package-info.class")) {
+            return null;
+        }
+
+        return entryName.substring(0, entryName.length() - CLASS_SUFFIX.length());
+    }
+
+    /**
+     * Converts a class name in source or internal form to internal form.
+     */
+    public static String toInternalName(String className) {
+        return className.replace('.', '/');
+    }
+
+    public boolean contains(String className) {
+        return owners.containsKey(className);
+    }
+
+    /**
+     * Returns the names of all indexed classes, in class path order.
+     */
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(owners.keySet());
+    }
+
+    /**
+     * Returns the jar a class is resolved to, or <code>null</code> if it is
+     * not indexed.
+     */
+    public File getJar(String className) {
+        ZipFile zipFile = owners.get(className);
+        return (zipFile == null) ? null : jars.get(zipFile);
+    }
+
+    /**
+     * Returns the dependency information of a class, or <code>null</code> if
+     * it is not indexed.
+     */
+    public synchronized ClassInfo getClassInfo(String className) throws IOException {
+        ClassInfo classInfo = classInfos.get(className);
+
+        if (classInfo == null) {
+            ZipFile zipFile = owners.get(className);
+            if (zipFile == null) {
+                return null;
+            }
+
+            ZipEntry entry = zipFile.getEntry(className + CLASS_SUFFIX);
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                classInfo = ClassFileReader.read(readFully(in, (int) entry.getSize()));
+            } catch (IOException exception) {
+                throw new IOException("Unable to read " + className + " from " + jars.get(zipFile) + ".",
+                    exception);
+            }
+
+            classInfos.put(className, classInfo);
+        }
+
+        return classInfo;
+    }
+
+    /**
+     * Returns the classes reachable from the given roots, in the order in
+     * which they are discovered. String constants that name an indexed class
+     * are followed as well, since such classes are usually loaded
+     * reflectively.
+     */
+    public Set<String> findReachable(Collection<String> roots) throws IOException {
+        Set<String> reachable = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+
+        for (String root : roots) {
+            if (contains(root) && reachable.add(root)) {
+                queue.add(root);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            ClassInfo classInfo = getClassInfo(queue.remove());
+
+            for (String reference : classInfo.getReferences()) {
+                if (contains(reference) && reachable.add(reference)) {
+                    queue.add(reference);
+                }
+            }
+
+            for (String stringConstant : classInfo.getStringConstants()) {
+                String reference = toInternalName(stringConstant);
+
+                if (contains(reference) && reachable.add(reference)) {
+                    queue.add(reference);
+                }
+            }
+        }
+
+        return reachable;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+
+        for (ZipFile zipFile : zipFiles) {
+            try {
+                zipFile.close();
+            } catch (IOException exception) {
+                failure = exception;
+            }
+        }
+
+        zipFiles.clear();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(sizeHint, 0));
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.classfile;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The dependency information of a single class file.
+ */
+public class ClassInfo {
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final Set<String> references;
+    private final Set<String> initializerReferences;
+    private final Set<String> stringConstants;
+
+    ClassInfo(String name, String superName, List<String> interfaces, Set<String> references,
+        Set<String> initializerReferences, Set<String> stringConstants) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList(interfaces);
+        this.references = Collections.unmodifiableSet(references);
+        this.initializerReferences = Collections.unmodifiableSet(initializerReferences);
+        this.stringConstants = Collections.unmodifiableSet(stringConstants);
+    }
+
+    /**
+     * Returns the internal name of the class, e.g. <code>java/lang/Object</code>.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the internal name of the superclass, or <code>null</code> for
+     * <code>java/lang/Object</code> and module descriptors.
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * Returns the internal names of all classes referenced by the class, in
+     * constant pool order.
+     */
+    public Set<String> getReferences() {
+        return references;
+    }
+
+    /**
+     * Returns the internal names of the classes referenced by the bytecode of
+     * the static initializer, in the order in which they appear.
+     */
+    public Set<String> getInitializerReferences() {
+        return initializerReferences;
+    }
+
+    /**
+     * Returns the string literals of the class. These may name classes that
+     * are loaded reflectively.
+     */
+    public Set<String> getStringConstants() {
+        return stringConstants;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.classfile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the classes recorded by an actual run of an application. Supported
+ * formats are class lists (as written by <code>-XX:DumpLoadedClassList</code>),
+ * <code>-verbose:class</code> output of JDK 8 and <code>-Xlog:class+load</code>
+ * output of later releases.
+ */
+public class ClassLoadLog {
+    private static final String LOADED_PREFIX = "[Loaded ";
+    private static final String CLASS_LOAD_TAG = "[class,load] ";
+
+    private ClassLoadLog() {
+    }
+
+    /**
+     * Returns the internal names of the recorded classes, in load order.
+     */
+    public static List<String> read(File file) throws IOException {
+        Set<String> classNames = new LinkedHashSet<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String className = parseLine(line);
+
+                if (className != null) {
+                    classNames.add(ClassIndex.toInternalName(className));
+                }
+            }
+        }
+
+        return new ArrayList<>(classNames);
+    }
+
+    private static String parseLine(String line) {
+        String text = line.trim();
+
+        int i = text.indexOf(LOADED_PREFIX);
+        if (i != -1) {
+            text = text.substring(i + LOADED_PREFIX.length());
+        } else {
+            i = text.indexOf(CLASS_LOAD_TAG);
+            if (i != -1) {
+                text = text.substring(i + CLASS_LOAD_TAG.length()).trim();
+            } else if (text.startsWith("[") || text.startsWith("#") || text.startsWith("@")) {
+                return null;
+            }
+        }
+
+        int end = 0;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && text.charAt(end) != ']') {
+            end++;
+        }
+
+        return (end == 0) ? null : text.substring(0, end);
+    }
+
+    /**
+     * Describes how well a predicted class list matches a recorded one: the
+     * share of recorded classes that were predicted, the share of predicted
+     * classes that were recorded, and the rank correlation of the classes
+     * found in both.
+     */
+    public static String compare(List<String> predicted, List<String> recorded) {
+        Map<String, Integer> recordedRanks = new HashMap<>();
+        for (int i = 0; i < recorded.size(); i++) {
+            recordedRanks.put(recorded.get(i), i);
+        }
+
+        List<Integer> ranks = new ArrayList<>();
+        for (String className : predicted) {
+            Integer rank = recordedRanks.get(className);
+
+            if (rank != null) {
+                ranks.add(rank);
+            }
+        }
+
+        int common = ranks.size();
+        double recall = recorded.isEmpty() ? 0 : 100.0 * common / recorded.size();
+        double precision = predicted.isEmpty() ? 0 : 100.0 * common / predicted.size();
+
+        return String.format("%d predicted, %d recorded, %d in both (recall %.1f%%, precision %.1f%%,"
+            + " order correlation %.2f)", predicted.size(), recorded.size(), common, recall, precision,
+            getRankCorrelation(ranks));
+    }
+
+    /**
+     * Returns Spearman's rank correlation between the position of each value
+     * and the value's rank.
+     */
+    private static double getRankCorrelation(List<Integer> values) {
+        int n = values.size();
+        if (n < 2) {
+            return 0;
+        }
+
+        List<Integer> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+
+        Map<Integer, Integer> ranks = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            ranks.put(sorted.get(i), i);
+        }
+
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double d = ranks.get(values.get(i)) - i;
+            sum += d * d;
+        }
+
+        return 1 - (6 * sum) / ((double) n * ((double) n * n - 1));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.classfile;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Predicts the order in which classes are loaded at startup by walking the
+ * bytecode from the main class. A class is listed after its supertypes and
+ * before the classes referenced by its static initializer, followed by the
+ * classes it references directly.
+ * <p>
+ * The prediction is a heuristic. Following every reference would list all
+ * classes reachable from the main class, most of which are never loaded at
+ * startup, so direct references are only followed up to a fixed depth from
+ * the main class. Supertypes and the references of static initializers are
+ * always followed, as loading a class loads them as well.
+ */
+public class ClassLoadOrder {
+    /**
+     * The number of direct references that are followed from the main class.
+     */
+    public static final int MAX_REFERENCE_DEPTH = 2;
+
+    private ClassLoadOrder() {
+    }
+
+    public static List<String> compute(ClassIndex classIndex, String mainClassName) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        Set<String> listed = new HashSet<>();
+
+        // The smallest reference depth at which each class has been visited
+        Map<String, Integer> depths = new HashMap<>();
+        Deque<Frame> stack = new ArrayDeque<>();
+
+        push(stack, depths, classIndex, ClassIndex.toInternalName(mainClassName), 0);
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+
+            if (frame.supertypes.hasNext()) {
+                push(stack, depths, classIndex, frame.supertypes.next(), frame.depth);
+            } else {
+                String className = frame.classInfo.getName();
+                if (listed.add(className)) {
+                    classNames.add(className);
+                }
+
+                if (frame.initializerReferences.hasNext()) {
+                    push(stack, depths, classIndex, frame.initializerReferences.next(), frame.depth);
+                } else if (frame.references.hasNext()) {
+                    push(stack, depths, classIndex, frame.references.next(), frame.depth + 1);
+                } else {
+                    stack.pop();
+                }
+            }
+        }
+
+        return classNames;
+    }
+
+    private static void push(Deque<Frame> stack, Map<String, Integer> depths, ClassIndex classIndex,
+        String className, int depth) throws IOException {
+        if (!classIndex.contains(className)) {
+            return;
+        }
+
+        // A class reached again more closely to the main class may lead further
+        Integer previousDepth = depths.get(className);
+        if (previousDepth == null || depth < previousDepth) {
+            depths.put(className, depth);
+            stack.push(new Frame(classIndex.getClassInfo(className), depth));
+        }
+    }
+
+    private static class Frame {
+        final ClassInfo classInfo;
+        final int depth;
+        final Iterator<String> supertypes;
+        final Iterator<String> initializerReferences;
+        final Iterator<String> references;
+
+        Frame(ClassInfo classInfo, int depth) {
+            this.classInfo = classInfo;
+            this.depth = depth;
+
+            List<String> supertypeNames = new ArrayList<>();
+            if (classInfo.getSuperName() != null) {
+                supertypeNames.add(classInfo.getSuperName());
+            }
+
+            supertypeNames.addAll(classInfo.getInterfaces());
+            this.supertypes = supertypeNames.iterator();
+            this.initializerReferences = classInfo.getInitializerReferences().iterator();
+
+            Set<String> referenceNames = (depth < MAX_REFERENCE_DEPTH) ? classInfo.getReferences()
+                : Collections.<String>emptySet();
+            this.references = referenceNames.iterator();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.patch;
+
+import java.io.IOException;
+
+/**
+ * Computes a binary delta as a sequence of copies from a base file and
+ * inserted literal bytes. Non-overlapping blocks of the base are indexed by
+ * a rolling hash; the target is scanned byte by byte, and every block match
+ * is extended in both directions. Unchanged entries of a jar are found
+ * wherever they moved, since their compressed bytes are identical.
+ */
+final class BinaryDelta {
+    /**
+     * Receives the operations of a delta in order.
+     */
+    interface Operations {
+        void copy(long offset, int length) throws IOException;
+
+        void insert(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    static final int BLOCK_SIZE = 32;
+
+    private static final int MULTIPLIER = 0x01000193;
+
+    private BinaryDelta() {
+    }
+
+    /**
+     * Computes the delta from the base to the target, returning the number
+     * of inserted bytes.
+     */
+    static long compute(byte[] base, byte[] target, Operations operations) throws IOException {
+        int blockCount = base.length / BLOCK_SIZE;
+
+        if (blockCount == 0 || target.length < BLOCK_SIZE) {
+            operations.insert(target, 0, target.length);
+            return target.length;
+        }
+
+        // Index the blocks of the base, keeping the first of equal hashes
+        int tableSize = Integer.highestOneBit(blockCount) << 2;
+        int mask = tableSize - 1;
+        int[] table = new int[tableSize];
+
+        for (int i = 0; i < blockCount; i++) {
+            int slot = mix(hash(base, i * BLOCK_SIZE)) & mask;
+
+            if (table[slot] == 0) {
+                table[slot] = i * BLOCK_SIZE + 1;
+            }
+        }
+
+        // Weight of the byte that leaves the window
+        int outgoingWeight = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            outgoingWeight *= MULTIPLIER;
+        }
+
+        long insertedCount = 0;
+        int insertStart = 0;
+        int i = 0;
+        int hash = hash(target, 0);
+
+        while (i + BLOCK_SIZE <= target.length) {
+            int candidate = table[mix(hash) & mask] - 1;
+
+            if (candidate >= 0 && matches(base, candidate, target, i)) {
+                int start = i;
+                int baseStart = candidate;
+                while (start > insertStart && baseStart > 0 && base[baseStart - 1] == target[start - 1]) {
+                    start--;
+                    baseStart--;
+                }
+
+                int end = i + BLOCK_SIZE;
+                int baseEnd = candidate + BLOCK_SIZE;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+
+                if (start > insertStart) {
+                    operations.insert(target, insertStart, start - insertStart);
+                    insertedCount += start - insertStart;
+                }
+
+                operations.copy(baseStart, end - start);
+
+                i = end;
+                insertStart = end;
+
+                if (i + BLOCK_SIZE <= target.length) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK_SIZE < target.length) {
+                    hash = (hash - (target[i] & 0xff) * outgoingWeight) * MULTIPLIER + (target[i + BLOCK_SIZE] & 0xff);
+                }
+
+                i++;
+            }
+        }
+
+        if (insertStart < target.length) {
+            operations.insert(target, insertStart, target.length - insertStart);
+            insertedCount += target.length - insertStart;
+        }
+
+        return insertedCount;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * MULTIPLIER + (bytes[offset + i] & 0xff);
+        }
+
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+
+        return hash;
+    }
+
+    private static boolean matches(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (base[baseOffset + i] != target[targetOffset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.patch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Applies a patch written by {@link PatchWriter} to a previous build of an
+ * app bundle, creating the new build in a separate directory. The patch is
+ * read sequentially, so it can be applied while it is downloaded. The base
+ * of every delta is checked before it is used, and every file that is sent
+ * or copied from the previous bundle is checked as it is written, so the
+ * result is identical to the bundle the patch was created from.
+ * <p>
+ * The applier does not depend on Ant and can be run from the appbundler
+ * jar:
+ * <pre>
+ * java -cp appbundler.jar com.oracle.appbundler.patch.PatchApplier previous.app app.patch new.app
+ * </pre>
+ */
+public class PatchApplier {
+    private final Path from;
+    private final Path to;
+
+    private final byte[] buffer = new byte[PatchFormat.BUFFER_SIZE];
+
+    public PatchApplier(File from, File to) {
+        this.from = from.toPath().toAbsolutePath().normalize();
+        this.to = to.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Applies the patch read from the given stream, which is not closed, and
+     * returns the number of records that were applied.
+     */
+    public int apply(InputStream inputStream) throws IOException {
+        byte[] magic = new byte[PatchFormat.MAGIC.length];
+        DataInputStream header = new DataInputStream(inputStream);
+        header.readFully(magic);
+
+        if (!Arrays.equals(magic, PatchFormat.MAGIC)) {
+            throw new IOException("Not a bundle patch.");
+        }
+
+        int version = header.readInt();
+        if (version != PatchFormat.VERSION) {
+            throw new IOException("Unsupported patch version " + version + ".");
+        }
+
+        if (Files.exists(to, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(to + " already exists.");
+        }
+
+        Files.createDirectories(to);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(inputStream),
+            PatchFormat.BUFFER_SIZE));
+
+        int recordCount = 0;
+
+        while (true) {
+            int type = in.readUnsignedByte();
+
+            switch (type) {
+                case PatchFormat.DIRECTORY: {
+                    Files.createDirectory(resolve(to, in.readUTF()));
+                    break;
+                }
+
+                case PatchFormat.UNCHANGED: {
+                    copyUnchanged(in);
+                    break;
+                }
+
+                case PatchFormat.FILE: {
+                    String path = in.readUTF();
+                    boolean executable = in.readBoolean();
+                    long size = in.readLong();
+                    Path file = resolve(to, path);
+
+                    MessageDigest digest = PatchFormat.newDigest();
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), PatchFormat.BUFFER_SIZE)) {
+                        transfer(in, out, size, digest);
+                    }
+
+                    checkHash(in, digest, path);
+                    setExecutable(file, executable);
+                    break;
+                }
+
+                case PatchFormat.LINK: {
+                    String path = in.readUTF();
+                    Path link = resolve(to, path);
+                    Path target = Paths.get(in.readUTF());
+
+                    // Links must not lead out of the bundle
+                    if (target.isAbsolute() || !link.getParent().resolve(target).normalize().startsWith(to)) {
+                        throw new IOException("Invalid link in patch: " + path + " -> " + target);
+                    }
+
+                    Files.createSymbolicLink(link, target);
+                    break;
+                }
+
+                case PatchFormat.DELTA: {
+                    applyDelta(in);
+                    break;
+                }
+
+                case PatchFormat.END: {
+                    if (in.readInt() != recordCount) {
+                        throw new IOException("Patch is incomplete.");
+                    }
+
+                    return recordCount;
+                }
+
+                default: {
+                    throw new IOException("Invalid patch record " + type + ".");
+                }
+            }
+
+            recordCount++;
+        }
+    }
+
+    private void copyUnchanged(DataInputStream in) throws IOException {
+        String path = in.readUTF();
+        long size = in.readLong();
+        byte[] hash = new byte[PatchFormat.HASH_LENGTH];
+        in.readFully(hash);
+
+        Path source = resolve(from, path);
+        if (!Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS) || Files.size(source) != size) {
+            throw new IOException("Previous bundle does not match the patch: " + path);
+        }
+
+        // The contents are checked as they are copied
+        Path file = resolve(to, path);
+        MessageDigest digest = PatchFormat.newDigest();
+
+        try (InputStream sourceIn = Files.newInputStream(source);
+            OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            transfer(sourceIn, out, size, digest);
+        }
+
+        if (!Arrays.equals(digest.digest(), hash)) {
+            throw new IOException("Previous bundle does not match the patch: " + path);
+        }
+
+        try {
+            Files.setPosixFilePermissions(file, Files.getPosixFilePermissions(source));
+        } catch (UnsupportedOperationException exception) {
+            setExecutable(file, Files.isExecutable(source));
+        }
+
+        Files.setLastModifiedTime(file, Files.getLastModifiedTime(source));
+    }
+
+    private void applyDelta(DataInputStream in) throws IOException {
+        String path = in.readUTF();
+        String basePath = in.readUTF();
+        boolean executable = in.readBoolean();
+        long baseSize = in.readLong();
+        byte[] baseHash = new byte[PatchFormat.HASH_LENGTH];
+        in.readFully(baseHash);
+        long size = in.readLong();
+
+        Path baseFile = resolve(from, basePath);
+        if (!Files.isRegularFile(baseFile, LinkOption.NOFOLLOW_LINKS) || Files.size(baseFile) != baseSize
+            || !Arrays.equals(hash(baseFile), baseHash)) {
+            throw new IOException("Previous bundle does not match the patch: " + basePath);
+        }
+
+        Path file = resolve(to, path);
+        MessageDigest digest = PatchFormat.newDigest();
+        long count = 0;
+
+        try (RandomAccessFile base = new RandomAccessFile(baseFile.toFile(), "r");
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE), PatchFormat.BUFFER_SIZE)) {
+            int operation;
+            while ((operation = in.readUnsignedByte()) != PatchFormat.END_OPERATIONS) {
+                if (operation == PatchFormat.COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+
+                    if (offset < 0 || length < 0 || offset + length > baseSize) {
+                        throw new IOException("Invalid delta for " + path + ".");
+                    }
+
+                    base.seek(offset);
+
+                    int remaining = length;
+                    while (remaining > 0) {
+                        int n = Math.min(buffer.length, remaining);
+                        base.readFully(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        digest.update(buffer, 0, n);
+                        remaining -= n;
+                    }
+
+                    count += length;
+                } else if (operation == PatchFormat.INSERT) {
+                    int length = in.readInt();
+                    transfer(in, out, length, digest);
+                    count += length;
+                } else {
+                    throw new IOException("Invalid delta operation " + operation + ".");
+                }
+            }
+        }
+
+        if (count != size) {
+            throw new IOException("Invalid delta for " + path + ".");
+        }
+
+        checkHash(in, digest, path);
+        setExecutable(file, executable);
+    }
+
+    private void transfer(InputStream in, OutputStream out, long size, MessageDigest digest) throws IOException {
+        long remaining = size;
+
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+            if (n == -1) {
+                throw new IOException("Patch is incomplete.");
+            }
+
+            out.write(buffer, 0, n);
+            digest.update(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private byte[] hash(Path file) throws IOException {
+        MessageDigest digest = PatchFormat.newDigest();
+
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        return digest.digest();
+    }
+
+    private static void checkHash(DataInputStream in, MessageDigest digest, String path) throws IOException {
+        byte[] hash = new byte[PatchFormat.HASH_LENGTH];
+        in.readFully(hash);
+
+        if (!Arrays.equals(digest.digest(), hash)) {
+            throw new IOException("Patched file does not match: " + path);
+        }
+    }
+
+    private static void setExecutable(Path file, boolean executable) {
+        if (executable) {
+            file.toFile().setExecutable(true, false);
+        }
+    }
+
+    /**
+     * Resolves a path read from the patch, which must stay within the given
+     * bundle. No folder on the way may be a link, since a link created by the
+     * patch could otherwise lead files out of the bundle.
+     */
+    private static Path resolve(Path root, String path) throws IOException {
+        Path resolved = root.resolve(path).normalize();
+
+        if (path.isEmpty() || Paths.get(path).isAbsolute() || !resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IOException("Invalid path in patch: " + path);
+        }
+
+        for (Path parent = resolved.getParent(); !parent.equals(root); parent = parent.getParent()) {
+            if (Files.isSymbolicLink(parent)) {
+                throw new IOException("Invalid path in patch: " + path);
+            }
+        }
+
+        return resolved;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java " + PatchApplier.class.getName() + " <previous bundle> <patch> <new bundle>");
+            System.exit(2);
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        try (InputStream in = new FileInputStream(args[1])) {
+            int recordCount = new PatchApplier(new File(args[0]), new File(args[2])).apply(in);
+
+            System.out.println("Patched " + args[2] + ": " + recordCount + " entries in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        } catch (IOException exception) {
+            System.err.println("Unable to apply patch: " + exception.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.patch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Constants of the patch format. A patch starts with {@link #MAGIC} and a
+ * version number, followed by a deflated stream of records in bundle path
+ * order, so that it can be applied while it is downloaded:
+ * <ul>
+ * <li>{@link #DIRECTORY}: path</li>
+ * <li>{@link #UNCHANGED}: path, size, SHA-256; copied from the previous bundle</li>
+ * <li>{@link #FILE}: path, executable, size, contents, SHA-256</li>
+ * <li>{@link #LINK}: path, target</li>
+ * <li>{@link #DELTA}: path, base path, executable, base size, base SHA-256,
+ * size, {@link #COPY} and {@link #INSERT} operations up to
+ * {@link #END_OPERATIONS}, SHA-256</li>
+ * <li>{@link #END}: number of records</li>
+ * </ul>
+ * Files of the previous bundle that are not referenced are not part of the
+ * patched bundle.
+ */
+final class PatchFormat {
+    static final byte[] MAGIC = {'A', 'P', 'P', 'B', 'P', 'A', 'T', 'C', 'H'};
+    static final int VERSION = 2;
+
+    static final int DIRECTORY = 'D';
+    static final int UNCHANGED = 'U';
+    static final int FILE = 'F';
+    static final int LINK = 'L';
+    static final int DELTA = 'M';
+    static final int END = 'E';
+
+    static final int COPY = 'c';
+    static final int INSERT = 'i';
+    static final int END_OPERATIONS = 'e';
+
+    static final int HASH_LENGTH = 32;
+    static final int BUFFER_SIZE = 65536;
+
+    private PatchFormat() {
+    }
+
+    static boolean isExecutable(Path path) throws IOException {
+        try {
+            return Files.getPosixFilePermissions(path).contains(PosixFilePermission.OWNER_EXECUTE);
+        } catch (UnsupportedOperationException exception) {
+            return Files.isExecutable(path);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.patch;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a patch that turns a previous build of an app bundle into a new
+ * one. Unchanged files are copied by the applier, modified files are sent
+ * as binary deltas, and added files are sent whole, unless a removed file
+ * with a similar name in the same directory, e.g. a previous version of a
+ * jar, is a good base for a delta.
+ */
+public class PatchWriter {
+    /**
+     * Summary of a written patch.
+     */
+    public static class Report {
+        private int unchangedCount = 0;
+        private int addedCount = 0;
+        private int removedCount = 0;
+        private int modifiedCount = 0;
+        private int deltaCount = 0;
+        private long insertedByteCount = 0;
+
+        public int getUnchangedCount() {
+            return unchangedCount;
+        }
+
+        public int getAddedCount() {
+            return addedCount;
+        }
+
+        public int getRemovedCount() {
+            return removedCount;
+        }
+
+        public int getModifiedCount() {
+            return modifiedCount;
+        }
+
+        public int getDeltaCount() {
+            return deltaCount;
+        }
+
+        public long getInsertedByteCount() {
+            return insertedByteCount;
+        }
+
+        @Override
+        public String toString() {
+            return unchangedCount + " unchanged, " + addedCount + " added, " + removedCount + " removed, "
+                + modifiedCount + " modified, " + deltaCount + " deltas, " + insertedByteCount + " literal bytes";
+        }
+    }
+
+    // Deltas that insert more than this fraction of the target are sent whole
+    private static final double MAXIMUM_INSERTED_RATIO = 0.9;
+
+    private static final int MINIMUM_NAME_PREFIX = 3;
+
+    private final Path from;
+    private final Path to;
+
+    public PatchWriter(File from, File to) {
+        this.from = from.toPath();
+        this.to = to.toPath();
+    }
+
+    /**
+     * Writes the patch to the given stream, which is not closed.
+     */
+    public Report write(OutputStream outputStream) throws IOException {
+        Map<String, Path> previousFiles = list(from);
+        Map<String, Path> files = list(to);
+
+        Report report = new Report();
+
+        // Index removed files by directory, as bases for added files
+        Map<String, List<String>> removedFiles = new HashMap<>();
+        for (Map.Entry<String, Path> entry : previousFiles.entrySet()) {
+            String path = entry.getKey();
+
+            if (!files.containsKey(path)) {
+                report.removedCount++;
+
+                if (Files.isRegularFile(entry.getValue(), LinkOption.NOFOLLOW_LINKS)) {
+                    List<String> paths = removedFiles.get(getParent(path));
+                    if (paths == null) {
+                        paths = new ArrayList<>();
+                        removedFiles.put(getParent(path), paths);
+                    }
+
+                    paths.add(path);
+                }
+            }
+        }
+
+        outputStream.write(PatchFormat.MAGIC);
+        new DataOutputStream(outputStream).writeInt(PatchFormat.VERSION);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater,
+            PatchFormat.BUFFER_SIZE);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflaterOutputStream,
+            PatchFormat.BUFFER_SIZE));
+
+        int recordCount = 0;
+
+        for (Map.Entry<String, Path> entry : files.entrySet()) {
+            String path = entry.getKey();
+            Path file = entry.getValue();
+            Path previousFile = previousFiles.get(path);
+
+            if (Files.isSymbolicLink(file)) {
+                out.writeByte(PatchFormat.LINK);
+                out.writeUTF(path);
+                out.writeUTF(Files.readSymbolicLink(file).toString());
+
+                if (previousFile == null) {
+                    report.addedCount++;
+                } else if (Files.isSymbolicLink(previousFile)
+                    && Files.readSymbolicLink(previousFile).equals(Files.readSymbolicLink(file))) {
+                    report.unchangedCount++;
+                } else {
+                    report.modifiedCount++;
+                }
+            } else if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                out.writeByte(PatchFormat.DIRECTORY);
+                out.writeUTF(path);
+            } else {
+                boolean previousRegular = previousFile != null
+                    && Files.isRegularFile(previousFile, LinkOption.NOFOLLOW_LINKS);
+                boolean executable = PatchFormat.isExecutable(file);
+                MessageDigest digest = PatchFormat.newDigest();
+
+                if (previousRegular && PatchFormat.isExecutable(previousFile) == executable
+                    && contentEquals(previousFile, file, digest)) {
+                    out.writeByte(PatchFormat.UNCHANGED);
+                    out.writeUTF(path);
+                    out.writeLong(Files.size(file));
+                    out.write(digest.digest());
+
+                    report.unchangedCount++;
+                } else {
+                    String basePath = previousRegular ? path : findBase(path, removedFiles);
+
+                    if (basePath == null || !writeDelta(out, path, basePath, executable, report)) {
+                        writeFile(out, path, file, executable);
+                    }
+
+                    if (previousFile == null) {
+                        report.addedCount++;
+                    } else {
+                        report.modifiedCount++;
+                    }
+                }
+            }
+
+            recordCount++;
+        }
+
+        out.writeByte(PatchFormat.END);
+        out.writeInt(recordCount);
+        out.flush();
+
+        deflaterOutputStream.finish();
+        deflater.end();
+
+        return report;
+    }
+
+    private boolean writeDelta(DataOutputStream out, String path, String basePath, boolean executable,
+        Report report) throws IOException {
+        Path baseFile = from.resolve(basePath);
+        Path file = to.resolve(path);
+
+        if (Files.size(baseFile) > Integer.MAX_VALUE - 8 || Files.size(file) > Integer.MAX_VALUE - 8) {
+            return false;
+        }
+
+        byte[] base = Files.readAllBytes(baseFile);
+        byte[] target = Files.readAllBytes(file);
+
+        ByteArrayOutputStream operationBuffer = new ByteArrayOutputStream();
+        final DataOutputStream operations = new DataOutputStream(operationBuffer);
+
+        long insertedByteCount = BinaryDelta.compute(base, target, new BinaryDelta.Operations() {
+            @Override
+            public void copy(long offset, int length) throws IOException {
+                operations.writeByte(PatchFormat.COPY);
+                operations.writeLong(offset);
+                operations.writeInt(length);
+            }
+
+            @Override
+            public void insert(byte[] bytes, int offset, int length) throws IOException {
+                operations.writeByte(PatchFormat.INSERT);
+                operations.writeInt(length);
+                operations.write(bytes, offset, length);
+            }
+        });
+
+        if (insertedByteCount > target.length * MAXIMUM_INSERTED_RATIO) {
+            return false;
+        }
+
+        operations.writeByte(PatchFormat.END_OPERATIONS);
+
+        out.writeByte(PatchFormat.DELTA);
+        out.writeUTF(path);
+        out.writeUTF(basePath);
+        out.writeBoolean(executable);
+        out.writeLong(base.length);
+        out.write(PatchFormat.newDigest().digest(base));
+        out.writeLong(target.length);
+        operationBuffer.writeTo(out);
+        out.write(PatchFormat.newDigest().digest(target));
+
+        report.deltaCount++;
+        report.insertedByteCount += insertedByteCount;
+
+        return true;
+    }
+
+    private void writeFile(DataOutputStream out, String path, Path file, boolean executable) throws IOException {
+        long size = Files.size(file);
+
+        out.writeByte(PatchFormat.FILE);
+        out.writeUTF(path);
+        out.writeBoolean(executable);
+        out.writeLong(size);
+
+        MessageDigest digest = PatchFormat.newDigest();
+        byte[] buffer = new byte[PatchFormat.BUFFER_SIZE];
+        long remaining = size;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (n == -1) {
+                    throw new IOException(file + " changed while the patch was written.");
+                }
+
+                out.write(buffer, 0, n);
+                digest.update(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+
+        out.write(digest.digest());
+    }
+
+    /**
+     * Returns the removed file in the same directory with the same extension
+     * and the longest common name prefix, or <code>null</code>.
+     */
+    private static String findBase(String path, Map<String, List<String>> removedFiles) {
+        List<String> candidates = removedFiles.get(getParent(path));
+
+        if (candidates == null) {
+            return null;
+        }
+
+        String name = getName(path);
+        String extension = getExtension(name);
+
+        String basePath = null;
+        int basePrefixLength = MINIMUM_NAME_PREFIX - 1;
+
+        for (String candidate : candidates) {
+            String candidateName = getName(candidate);
+
+            if (getExtension(candidateName).equals(extension)) {
+                int prefixLength = 0;
+                int n = Math.min(name.length(), candidateName.length());
+                while (prefixLength < n && name.charAt(prefixLength) == candidateName.charAt(prefixLength)) {
+                    prefixLength++;
+                }
+
+                if (prefixLength > basePrefixLength) {
+                    basePath = candidate;
+                    basePrefixLength = prefixLength;
+                }
+            }
+        }
+
+        return basePath;
+    }
+
+    private static Map<String, Path> list(final Path root) throws IOException {
+        final Map<String, Path> files = new TreeMap<>();
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.forEach(path -> {
+                if (!path.equals(root)) {
+                    files.put(root.relativize(path).toString().replace(File.separatorChar, '/'), path);
+                }
+            });
+        }
+
+        return files;
+    }
+
+    /**
+     * Compares the contents of two files, adding the contents of the second
+     * to the given digest as far as they were read.
+     */
+    private static boolean contentEquals(Path a, Path b, MessageDigest digest) throws IOException {
+        if (Files.size(a) != Files.size(b)) {
+            return false;
+        }
+
+        byte[] bufferA = new byte[PatchFormat.BUFFER_SIZE];
+        byte[] bufferB = new byte[PatchFormat.BUFFER_SIZE];
+
+        try (InputStream inA = Files.newInputStream(a);
+            InputStream inB = Files.newInputStream(b)) {
+            int n;
+            while ((n = readFully(inA, bufferA)) > 0) {
+                if (readFully(inB, bufferB) != n) {
+                    return false;
+                }
+
+                digest.update(bufferB, 0, n);
+
+                for (int i = 0; i < n; i++) {
+                    if (bufferA[i] != bufferB[i]) {
+                        return false;
+                    }
+                }
+            }
+
+            return readFully(inB, bufferB) == 0;
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int count = 0;
+
+        int n;
+        while (count < buffer.length && (n = in.read(buffer, count, buffer.length - count)) != -1) {
+            count += n;
+        }
+
+        return count;
+    }
+
+    private static String getParent(String path) {
+        int i = path.lastIndexOf('/');
+        return (i == -1) ? "" : path.substring(0, i);
+    }
+
+    private static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getExtension(String name) {
+        int i = name.lastIndexOf('.');
+        return (i == -1) ? "" : name.substring(i);
+    }
+}
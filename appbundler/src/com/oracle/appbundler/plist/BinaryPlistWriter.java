@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.plist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes property lists in the binary <code>bplist00</code> format. The
+ * values are collected until {@link #finish()} encodes them; equal strings,
+ * integers and booleans are stored once and shared.
+ */
+public class BinaryPlistWriter implements PlistWriter {
+    private static final byte[] MAGIC = "bplist00".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int FALSE_MARKER = 0x08;
+    private static final int TRUE_MARKER = 0x09;
+    private static final int INTEGER_MARKER = 0x10;
+    private static final int ASCII_STRING_MARKER = 0x50;
+    private static final int UNICODE_STRING_MARKER = 0x60;
+    private static final int ARRAY_MARKER = 0xA0;
+    private static final int DICT_MARKER = 0xD0;
+
+    // Largest count that fits into the low nibble of a marker
+    private static final int MAX_INLINE_COUNT = 14;
+
+    /**
+     * A dictionary or array whose values are being written.
+     */
+    private static class Container {
+        final boolean dict;
+        final List<Object> keys = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+
+        // Object numbers of the keys followed by those of the values
+        int[] references = null;
+
+        Container(boolean dict) {
+            this.dict = dict;
+        }
+    }
+
+    private final OutputStream out;
+    private final Deque<Container> containers = new ArrayDeque<>();
+    private Container root = null;
+
+    // Objects in the order they are written, and the number of each
+    private final List<Object> objects = new ArrayList<>();
+    private final Map<Object, Integer> objectNumbers = new HashMap<>();
+    private int objectRefSize = 0;
+
+    public BinaryPlistWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeStartDict() throws IOException {
+        startContainer(new Container(true));
+    }
+
+    @Override
+    public void writeStartArray() throws IOException {
+        startContainer(new Container(false));
+    }
+
+    @Override
+    public void writeEnd() throws IOException {
+        if (containers.isEmpty()) {
+            throw new IllegalStateException("No dictionary or array to end.");
+        }
+
+        Container container = containers.pop();
+        if (container.dict && container.keys.size() != container.values.size()) {
+            throw new IllegalStateException("Missing value for key " + container.keys.get(container.keys.size() - 1)
+                + ".");
+        }
+    }
+
+    @Override
+    public void writeKey(String key) throws IOException {
+        Container container = containers.peek();
+        if (container == null || !container.dict || container.keys.size() != container.values.size()) {
+            throw new IllegalStateException("Unexpected key " + key + ".");
+        }
+
+        container.keys.add(key);
+    }
+
+    @Override
+    public void writeString(String value) throws IOException {
+        addValue(value);
+    }
+
+    @Override
+    public void writeBoolean(boolean value) throws IOException {
+        addValue(value);
+    }
+
+    @Override
+    public void writeInteger(long value) throws IOException {
+        addValue(value);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (root == null || !containers.isEmpty()) {
+            throw new IllegalStateException("Incomplete property list.");
+        }
+
+        number(root);
+        objectRefSize = getByteCount(objects.size() - 1);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(content);
+        dataOut.write(MAGIC);
+
+        long[] offsets = new long[objects.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = dataOut.size();
+            writeObject(dataOut, objects.get(i));
+        }
+
+        long offsetTableOffset = dataOut.size();
+        int offsetIntSize = getByteCount(offsetTableOffset);
+        for (long offset : offsets) {
+            writeSizedInt(dataOut, offset, offsetIntSize);
+        }
+
+        // Trailer
+        dataOut.write(new byte[6]);
+        dataOut.writeByte(offsetIntSize);
+        dataOut.writeByte(objectRefSize);
+        dataOut.writeLong(objects.size());
+        dataOut.writeLong(0);
+        dataOut.writeLong(offsetTableOffset);
+
+        dataOut.flush();
+        content.writeTo(out);
+        out.flush();
+    }
+
+    private void startContainer(Container container) throws IOException {
+        if (root == null) {
+            root = container;
+        } else {
+            addValue(container);
+        }
+
+        containers.push(container);
+    }
+
+    private void addValue(Object value) {
+        Container container = containers.peek();
+        if (container == null) {
+            throw new IllegalStateException("Values must be written into a dictionary or array.");
+        }
+
+        if (container.dict && container.keys.size() != container.values.size() + 1) {
+            throw new IllegalStateException("Missing key for value " + value + ".");
+        }
+
+        container.values.add(value);
+    }
+
+    /**
+     * Assigns object numbers in depth-first order, sharing numbers between
+     * equal scalar values.
+     */
+    private int number(Object value) {
+        if (!(value instanceof Container)) {
+            Integer number = objectNumbers.get(value);
+            if (number == null) {
+                number = objects.size();
+                objects.add(value);
+                objectNumbers.put(value, number);
+            }
+
+            return number;
+        }
+
+        Container container = (Container) value;
+        int number = objects.size();
+        objects.add(container);
+
+        container.references = new int[container.keys.size() + container.values.size()];
+        int i = 0;
+        for (Object key : container.keys) {
+            container.references[i++] = number(key);
+        }
+
+        for (Object element : container.values) {
+            container.references[i++] = number(element);
+        }
+
+        return number;
+    }
+
+    private void writeObject(DataOutputStream dataOut, Object value) throws IOException {
+        if (value instanceof Boolean) {
+            dataOut.writeByte((Boolean) value ? TRUE_MARKER : FALSE_MARKER);
+        } else if (value instanceof Long) {
+            writeInteger(dataOut, (Long) value);
+        } else if (value instanceof String) {
+            writeString(dataOut, (String) value);
+        } else {
+            Container container = (Container) value;
+            writeMarker(dataOut, container.dict ? DICT_MARKER : ARRAY_MARKER, container.values.size());
+
+            for (int reference : container.references) {
+                writeSizedInt(dataOut, reference, objectRefSize);
+            }
+        }
+    }
+
+    private static void writeInteger(DataOutputStream dataOut, long value) throws IOException {
+        // Negative values are always written as eight bytes
+        int byteCount = (value < 0) ? 8 : getByteCount(value);
+        int exponent = Integer.numberOfTrailingZeros(byteCount);
+
+        dataOut.writeByte(INTEGER_MARKER | exponent);
+        writeSizedInt(dataOut, value, byteCount);
+    }
+
+    private static void writeString(DataOutputStream dataOut, String value) throws IOException {
+        boolean ascii = true;
+        for (int i = 0; i < value.length() && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+
+        if (ascii) {
+            writeMarker(dataOut, ASCII_STRING_MARKER, value.length());
+            dataOut.write(value.getBytes(StandardCharsets.US_ASCII));
+        } else {
+            // The count of a Unicode string is given in UTF-16 code units
+            writeMarker(dataOut, UNICODE_STRING_MARKER, value.length());
+            dataOut.write(value.getBytes(StandardCharsets.UTF_16BE));
+        }
+    }
+
+    private static void writeMarker(DataOutputStream dataOut, int marker, int count) throws IOException {
+        if (count <= MAX_INLINE_COUNT) {
+            dataOut.writeByte(marker | count);
+        } else {
+            dataOut.writeByte(marker | 0x0F);
+            writeInteger(dataOut, count);
+        }
+    }
+
+    /**
+     * Returns the number of bytes (1, 2, 4 or 8) needed to store the given
+     * non-negative value.
+     */
+    private static int getByteCount(long value) {
+        if (value < 0x100) {
+            return 1;
+        } else if (value < 0x10000) {
+            return 2;
+        } else if (value < 0x100000000L) {
+            return 4;
+        } else {
+            return 8;
+        }
+    }
+
+    private static void writeSizedInt(DataOutputStream dataOut, long value, int byteCount) throws IOException {
+        for (int i = byteCount - 1; i >= 0; i--) {
+            dataOut.writeByte((int) (value >>> (i * 8)));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.plist;
+
+import java.io.IOException;
+
+/**
+ * Streaming writer for property lists. Values are written in document
+ * order; every value written into a dictionary must be preceded by its key.
+ */
+public interface PlistWriter {
+    public void writeStartDict() throws IOException;
+
+    public void writeStartArray() throws IOException;
+
+    /**
+     * Ends the innermost dictionary or array.
+     */
+    public void writeEnd() throws IOException;
+
+    public void writeKey(String key) throws IOException;
+
+    public void writeString(String value) throws IOException;
+
+    public void writeBoolean(boolean value) throws IOException;
+
+    public void writeInteger(long value) throws IOException;
+
+    /**
+     * Completes the property list and flushes it to the underlying stream.
+     */
+    public void finish() throws IOException;
+}
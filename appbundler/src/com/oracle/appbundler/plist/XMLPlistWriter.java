@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012, Oracle and/or its affiliates. All rights reserved.
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package com.oracle.appbundler.plist;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes property lists in the indented XML format. The output is the same
+ * as that of the JDK's StAX writer wrapped in an
+ * {@link com.oracle.appbundler.xml.IndentingXMLStreamWriter}, but is written
+ * straight to the underlying stream.
+ */
+public class XMLPlistWriter implements PlistWriter {
+    private static final String PROLOG = "<?xml version=\"1.0\" ?>\n"
+        + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">"
+        + "<plist version=\"1.0\">";
+    private static final String END_TAG = "</plist>";
+    private static final String INDENT_STEP = "  ";
+
+    private final Writer out;
+
+    // Line break and indentation for each depth; the plist element is at depth 0
+    private String[] indents = new String[0];
+
+    // Open dictionaries and arrays, and whether each has any content yet
+    private String[] endTags = new String[8];
+    private boolean[] hasContent = new boolean[8];
+    private int depth = 0;
+
+    public XMLPlistWriter(OutputStream outputStream) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        out.write(PROLOG);
+    }
+
+    @Override
+    public void writeStartDict() throws IOException {
+        writeStart("<dict>", "</dict>");
+    }
+
+    @Override
+    public void writeStartArray() throws IOException {
+        writeStart("<array>", "</array>");
+    }
+
+    @Override
+    public void writeEnd() throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("No dictionary or array to end.");
+        }
+
+        if (hasContent[depth]) {
+            out.write(getIndent(depth));
+        }
+
+        out.write(endTags[depth]);
+        depth--;
+    }
+
+    @Override
+    public void writeKey(String key) throws IOException {
+        writeElement("<key>", key, "</key>");
+    }
+
+    @Override
+    public void writeString(String value) throws IOException {
+        writeElement("<string>", value, "</string>");
+    }
+
+    @Override
+    public void writeBoolean(boolean value) throws IOException {
+        startContent();
+        out.write(value ? "<true/>" : "<false/>");
+    }
+
+    @Override
+    public void writeInteger(long value) throws IOException {
+        writeElement("<integer>", Long.toString(value), "</integer>");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("Incomplete property list.");
+        }
+
+        if (hasContent[0]) {
+            out.write(getIndent(0));
+        }
+
+        out.write(END_TAG);
+        out.flush();
+    }
+
+    private void writeStart(String startTag, String endTag) throws IOException {
+        startContent();
+        out.write(startTag);
+
+        depth++;
+        if (depth == endTags.length) {
+            endTags = Arrays.copyOf(endTags, depth * 2);
+            hasContent = Arrays.copyOf(hasContent, depth * 2);
+        }
+
+        endTags[depth] = endTag;
+        hasContent[depth] = false;
+    }
+
+    private void writeElement(String startTag, String text, String endTag) throws IOException {
+        startContent();
+        out.write(startTag);
+        writeEscaped(text);
+        out.write(endTag);
+    }
+
+    private void startContent() throws IOException {
+        hasContent[depth] = true;
+        out.write(getIndent(depth + 1));
+    }
+
+    private String getIndent(int level) {
+        if (level >= indents.length) {
+            String[] newIndents = Arrays.copyOf(indents, Math.max(level + 1, indents.length * 2));
+
+            for (int i = indents.length; i < newIndents.length; i++) {
+                StringBuilder indent = new StringBuilder("\n");
+                for (int j = 0; j < i; j++) {
+                    indent.append(INDENT_STEP);
+                }
+
+                newIndents[i] = indent.toString();
+            }
+
+            indents = newIndents;
+        }
+
+        return indents[level];
+    }
+
+    /**
+     * Writes character data, escaping markup characters.
+     */
+    private void writeEscaped(String text) throws IOException {
+        int start = 0;
+        int length = text.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+
+            if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = "&gt;";
+            } else if (c == '&') {
+                replacement = "&amp;";
+            } else {
+                continue;
+            }
+
+            out.write(text, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+
+        out.write(text, start, length - start);
+    }
+}